@@ -0,0 +1,72 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// a basket of legs spread over every delay, half of them borrowing from lower delays, blocked leg by leg
+// or at once and released by one unblock per delay so the wallet is back where it started
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BasketBlockBenchmark {
+
+    private static final long AMOUNT = 1_000L;
+
+    @Param({"24"})
+    public int legCount;
+
+    private final OperationResult result = new OperationResult();
+    private final long[] blockedPerDelay = new long[SettlementDelay.count()];
+
+    private WalletCommand[] legs;
+    private Wallet wallet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wallet = new Wallet();
+        wallet.chargeRaw(AMOUNT * legCount * legCount);
+        legs = new WalletCommand[legCount];
+        for (int i = 0; i < legCount; i++) {
+            var delay = SettlementDelay.of(i % SettlementDelay.count());
+            legs[i] = WalletCommand.block(AMOUNT, delay);
+            blockedPerDelay[delay.ordinal()] += AMOUNT;
+            // the even delays block their own cash, the odd ones borrow it
+            if (delay.ordinal() % 2 == 0)
+                wallet.depositRaw(AMOUNT * legCount, delay);
+        }
+    }
+
+    @Benchmark
+    public long legByLeg() {
+        for (WalletCommand leg : legs)
+            leg.tryApplyTo(wallet, result);
+        return release();
+    }
+
+    @Benchmark
+    public long basket() {
+        wallet.tryBlockAll(legs, result);
+        return release();
+    }
+
+    private long release() {
+        for (int i = SettlementDelay.count() - 1; i >= 0; i--)
+            wallet.unblockRaw(blockedPerDelay[i], SettlementDelay.of(i));
+        return wallet.buyingPowerRaw(SettlementDelay.T_PLUS_0);
+    }
+}
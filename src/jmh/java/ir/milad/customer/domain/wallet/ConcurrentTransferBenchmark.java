@@ -0,0 +1,90 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// threads moving blocked money between random pairs of a few wallets, so they keep contending for the same locks,
+// one transfer at a time or in batches locking their wallets once
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ConcurrentTransferBenchmark {
+
+    private static final int BATCH = 16;
+    private static final int PREPARED = 1 << 10;
+    // enough blocked money that no run drains a wallet
+    private static final long BLOCKED = 1L << 50;
+
+    @Param({"16"})
+    public int wallets;
+
+    private ConcurrentWallet[] pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new ConcurrentWallet[wallets];
+        for (int i = 0; i < wallets; i++) {
+            pool[i] = new ConcurrentWallet();
+            pool[i].chargeRaw(BLOCKED);
+            pool[i].blockRaw(BLOCKED, SettlementDelay.T_PLUS_0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Transfers {
+        final WalletTransfer[] prepared = new WalletTransfer[PREPARED];
+        final WalletTransfer[][] batches = new WalletTransfer[PREPARED / BATCH][];
+        final OperationResult result = new OperationResult();
+        final OperationResult[] results = new OperationResult[BATCH];
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(ConcurrentTransferBenchmark benchmark) {
+            var random = new SplittableRandom(Thread.currentThread().getId());
+            var pool = benchmark.pool;
+            for (int i = 0; i < PREPARED; i++) {
+                var from = random.nextInt(pool.length);
+                var to = (from + 1 + random.nextInt(pool.length - 1)) % pool.length;
+                prepared[i] = WalletTransfer.of(pool[from], pool[to], 1L, SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1);
+            }
+            for (int i = 0; i < batches.length; i++) {
+                batches[i] = new WalletTransfer[BATCH];
+                System.arraycopy(prepared, i * BATCH, batches[i], 0, BATCH);
+            }
+            for (int i = 0; i < BATCH; i++)
+                results[i] = new OperationResult();
+        }
+    }
+
+    @Benchmark
+    public OperationResult single(Transfers transfers) {
+        var transfer = transfers.prepared[transfers.next++ & (PREPARED - 1)];
+        return transfer.from().tryTransfer(transfer.to(), transfer.amount(), transfer.fromDelay(), transfer.toDelay(), transfers.result);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int batched(Transfers transfers) {
+        var batch = transfers.batches[transfers.next++ & (transfers.batches.length - 1)];
+        return ConcurrentWallet.transfer(batch, transfers.results);
+    }
+}
@@ -0,0 +1,80 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ConcurrentWalletBenchmark {
+
+    private static final long TO_BLOCK = 1_000_000L;
+
+    private ConcurrentWallet wallet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wallet = new ConcurrentWallet();
+        for (SettlementDelay delay : SettlementDelay.values())
+            wallet.depositRaw(TO_BLOCK, delay);
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(4)
+    public long readOnlyBuyingPower() {
+        return wallet.buyingPowerRaw(SettlementDelay.T_PLUS_3);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public long readWriteBuyingPower() {
+        return wallet.buyingPowerRaw(SettlementDelay.T_PLUS_3);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public long readWriteBlockThenUnblock() {
+        wallet.blockRaw(TO_BLOCK * SettlementDelay.count(), SettlementDelay.T_PLUS_3);
+        wallet.unblockRaw(TO_BLOCK * SettlementDelay.count(), SettlementDelay.T_PLUS_3);
+        return TO_BLOCK;
+    }
+
+    @State(Scope.Thread)
+    public static class View {
+        final WalletView view = new WalletView();
+    }
+
+    // every tier and debt at once, against the same writer as readWrite
+    @Benchmark
+    @Group("viewWrite")
+    @GroupThreads(3)
+    public WalletView viewWriteRead(View view) {
+        return wallet.read(view.view);
+    }
+
+    @Benchmark
+    @Group("viewWrite")
+    @GroupThreads(1)
+    public long viewWriteBlockThenUnblock() {
+        return readWriteBlockThenUnblock();
+    }
+}
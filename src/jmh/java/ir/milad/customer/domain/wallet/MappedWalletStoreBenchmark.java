@@ -0,0 +1,75 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// block then unblock on a random wallet, kept on the heap in a registry or off it in a mapped store.
+// run with -prof gc to compare what a full collection has to walk
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class MappedWalletStoreBenchmark {
+
+    @Param({"1000000"})
+    public int wallets;
+
+    private final WalletCommand block = WalletCommand.block(1_000L, SettlementDelay.T_PLUS_2);
+    private final WalletCommand unblock = WalletCommand.unblock(1_000L, SettlementDelay.T_PLUS_2);
+    private final OperationResult result = new OperationResult();
+
+    private WalletRegistry registry;
+    private MappedWalletStore store;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        registry = new WalletRegistry(1, wallets);
+        file = Files.createTempFile("wallets", ".store");
+        Files.delete(file);
+        store = MappedWalletStore.open(file, wallets);
+        var funding = WalletCommand.deposit(1_000_000L, SettlementDelay.T_PLUS_1);
+        for (long customerId = 0; customerId < wallets; customerId++) {
+            funding.applyTo(registry.getOrCreate(customerId));
+            store.apply(customerId, funding);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public OperationResult heap() {
+        var wallet = registry.get(ThreadLocalRandom.current().nextInt(wallets));
+        block.tryApplyTo(wallet, result);
+        return unblock.tryApplyTo(wallet, result);
+    }
+
+    @Benchmark
+    public OperationResult mapped() {
+        var customerId = ThreadLocalRandom.current().nextInt(wallets);
+        store.tryApply(customerId, block, result);
+        return store.tryApply(customerId, unblock, result);
+    }
+}
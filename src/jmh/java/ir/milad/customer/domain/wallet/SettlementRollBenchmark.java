@@ -0,0 +1,56 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// one cut-off over every wallet of the registry, each holding money on every tier and debts on the highest one
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+@State(Scope.Benchmark)
+public class SettlementRollBenchmark {
+
+    @Param({"10000000"})
+    public int wallets;
+
+    @Param({"1", "8"})
+    public int shards;
+
+    private WalletRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new WalletRegistry(shards, wallets);
+        for (long walletId = 0; walletId < wallets; walletId++)
+            registry.getOrCreate(walletId);
+    }
+
+    // every iteration rolls a freshly funded day, so later iterations don't roll empty wallets
+    @Setup(Level.Iteration)
+    public void fund() {
+        registry.forEach((walletId, wallet) -> {
+            for (SettlementDelay delay : SettlementDelay.values())
+                wallet.depositRaw(1_000_000L, delay);
+            wallet.blockRaw(3_500_000L, SettlementDelay.T_PLUS_3);
+        });
+    }
+
+    @Benchmark
+    public SettlementRoll.Progress roll() {
+        return new SettlementRoll(registry).run();
+    }
+}
@@ -0,0 +1,85 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// restart from a snapshot of every wallet plus a journal tail of JOURNAL_TAIL commands
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    private static final int JOURNAL_TAIL = 100_000;
+
+    @Param({"10000000"})
+    public int wallets;
+
+    @Param({"1", "8"})
+    public int shards;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("wallet-startup");
+        var registry = new WalletRegistry(shards, wallets);
+        for (long walletId = 0; walletId < wallets; walletId++) {
+            var wallet = registry.getOrCreate(walletId);
+            wallet.chargeRaw(10_000_000L);
+            wallet.depositRaw(1_000_000L, SettlementDelay.T_PLUS_2);
+            wallet.blockRaw(2_000_000L, SettlementDelay.T_PLUS_3);
+        }
+        var engine = new WalletEngine(registry, config());
+        engine.start();
+        engine.snapshot().get();
+        CompletableFuture<Money> last = null;
+        for (long i = 0; i < JOURNAL_TAIL; i++)
+            last = engine.submit(i * 97 % wallets, WalletCommand.deposit(1L, SettlementDelay.T_PLUS_1));
+        if (last != null)
+            last.get();
+        engine.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try (var files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public WalletRegistry startup() throws Exception {
+        var registry = new WalletRegistry(shards, wallets);
+        var engine = new WalletEngine(registry, config());
+        engine.start();
+        engine.close();
+        return registry;
+    }
+
+    private WalletEngineConfig config() {
+        return WalletEngineConfig.builder()
+                .journalDirectory(directory)
+                .durability(JournalDurability.WRITE)
+                .build();
+    }
+}
@@ -0,0 +1,98 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// a gateway's queue for one customer: fills, partial unblocks and deposits, half of them on the cascade path
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+@OperationsPerInvocation(WalletBatchBenchmark.BATCH_SIZE)
+public class WalletBatchBenchmark {
+
+    static final int BATCH_SIZE = 32;
+    private static final long AMOUNT = 1_000L;
+
+    private final WalletCommand[] commands = new WalletCommand[BATCH_SIZE];
+    private final OperationResult[] results = new OperationResult[BATCH_SIZE];
+    private final OperationResult result = new OperationResult();
+
+    private Wallet wallet;
+    private ConcurrentWallet concurrentWallet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wallet = new Wallet();
+        concurrentWallet = new ConcurrentWallet();
+        for (SettlementDelay delay : SettlementDelay.values()) {
+            wallet.depositRaw(1_000_000_000L, delay);
+            concurrentWallet.depositRaw(1_000_000_000L, delay);
+        }
+        for (int i = 0; i < BATCH_SIZE; i += 4) {
+            var delay = SettlementDelay.of(i / 4 % SettlementDelay.count());
+            commands[i] = WalletCommand.block(2 * AMOUNT, delay);
+            commands[i + 1] = WalletCommand.spend(AMOUNT, delay);
+            commands[i + 2] = WalletCommand.unblock(AMOUNT, delay);
+            commands[i + 3] = WalletCommand.deposit(AMOUNT, delay);
+        }
+        Arrays.setAll(results, i -> new OperationResult());
+    }
+
+    @Benchmark
+    public int individual() {
+        var succeeded = 0;
+        for (WalletCommand command : commands)
+            if (command.tryApplyTo(wallet, result).isSuccess())
+                succeeded++;
+        return succeeded;
+    }
+
+    @Benchmark
+    public int batch() {
+        return wallet.apply(commands, results);
+    }
+
+    @Benchmark
+    public int concurrentIndividual() {
+        var succeeded = 0;
+        for (WalletCommand command : commands) {
+            var outcome = switch (command.type()) {
+                case CHARGE -> {
+                    concurrentWallet.chargeRaw(command.amount());
+                    yield result.succeeded();
+                }
+                case DEPOSIT -> {
+                    concurrentWallet.depositRaw(command.amount(), command.delay());
+                    yield result.succeeded();
+                }
+                case BLOCK -> concurrentWallet.tryBlock(command.amount(), command.delay(), result);
+                case SPEND -> concurrentWallet.trySpend(command.amount(), command.delay(), result);
+                case UNBLOCK -> concurrentWallet.tryUnblock(command.amount(), command.delay(), result);
+            };
+            if (outcome.isSuccess())
+                succeeded++;
+        }
+        return succeeded;
+    }
+
+    @Benchmark
+    public int concurrentBatch() {
+        return concurrentWallet.apply(commands, results);
+    }
+}
@@ -0,0 +1,139 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WalletBenchmark {
+
+    private static final long AMOUNT_PER_TIER = 1_000_000L;
+    private static final long INITIAL_FUNDS = 1_000_000_000_000L;
+    private static final Money ONE = Money.of(1L);
+
+    public enum Shape {
+        // money sits in the blocking tier itself, no debt is created
+        OWN_TIER,
+        // money is spread over every tier up to the blocking one and the whole of it is blocked,
+        // so block has to borrow from all lower wallets and spend/unblock walk every debt
+        CASCADE
+    }
+
+    @Param
+    public SettlementDelay delay;
+
+    @Param
+    public Shape shape;
+
+    private final OperationResult result = new OperationResult();
+
+    private Wallet wallet;
+    private Money toBlock;
+    private Money perTier;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wallet = new Wallet();
+        if (shape == Shape.OWN_TIER) {
+            perTier = Money.of(AMOUNT_PER_TIER);
+            toBlock = perTier;
+            wallet.deposit(Money.of(INITIAL_FUNDS), delay);
+        } else {
+            var tiers = delay.EqualAndLess().size();
+            perTier = Money.of(AMOUNT_PER_TIER);
+            toBlock = Money.of(AMOUNT_PER_TIER * tiers);
+            refund();
+        }
+    }
+
+    @Benchmark
+    public void charge() {
+        wallet.charge(ONE);
+    }
+
+    @Benchmark
+    public void deposit() {
+        wallet.deposit(ONE, delay);
+    }
+
+    @Benchmark
+    public Money buyingPower() {
+        return wallet.buyingPower(delay);
+    }
+
+    @Benchmark
+    public long buyingPowerRaw() {
+        return wallet.buyingPowerRaw(delay);
+    }
+
+    @Benchmark
+    public Money blockThenUnblock() {
+        wallet.block(toBlock, delay);
+        wallet.unblock(toBlock, delay);
+        return toBlock;
+    }
+
+    @Benchmark
+    public Money blockThenSpend() {
+        wallet.block(toBlock, delay);
+        wallet.spend(toBlock, delay);
+        refund();
+        return toBlock;
+    }
+
+    @Benchmark
+    public long blockThenUnblockRaw() {
+        wallet.blockRaw(toBlock.value(), delay);
+        wallet.unblockRaw(toBlock.value(), delay);
+        return toBlock.value();
+    }
+
+    @Benchmark
+    public Money orderEntry() {
+        var buyingPower = wallet.buyingPower(delay);
+        wallet.block(toBlock, delay);
+        wallet.unblock(toBlock, delay);
+        return buyingPower;
+    }
+
+    // an order bigger than any buying power, the cost of turning it away with an exception vs a result code
+    @Benchmark
+    public Object rejectedBlock() {
+        try {
+            wallet.blockRaw(Long.MAX_VALUE, delay);
+            return null;
+        } catch (InsufficientFundsException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public OperationResult rejectedTryBlock() {
+        return wallet.tryBlock(Long.MAX_VALUE, delay, result);
+    }
+
+    private void refund() {
+        if (shape == Shape.OWN_TIER) {
+            wallet.deposit(perTier, delay);
+            return;
+        }
+        for (SettlementDelay tier : delay.EqualAndLess())
+            wallet.deposit(perTier, tier);
+    }
+}
@@ -0,0 +1,20 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class WalletBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        var commandLine = new CommandLineOptions(args);
+        var options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getIncludes().isEmpty())
+            options.include(WalletBenchmark.class.getSimpleName());
+        options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+}
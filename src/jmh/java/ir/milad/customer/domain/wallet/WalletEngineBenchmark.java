@@ -0,0 +1,84 @@
+package ir.milad.customer.domain.wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class WalletEngineBenchmark {
+
+    private static final int BATCH = 256;
+    private static final int WALLETS = 100_000;
+
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    // NONE keeps wallets in memory only, otherwise the JournalDurability of the journal
+    @Param({"NONE", "WRITE", "FSYNC"})
+    public String journal;
+
+    private WalletEngine engine;
+    private Path journalDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        var config = WalletEngineConfig.builder();
+        if (!journal.equals("NONE")) {
+            journalDirectory = Files.createTempDirectory("wallet-journal");
+            config.journalDirectory(journalDirectory).durability(JournalDurability.valueOf(journal));
+        }
+        engine = new WalletEngine(new WalletRegistry(shards, WALLETS), config.build());
+        engine.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        engine.close();
+        if (journalDirectory != null)
+            try (var files = Files.walk(journalDirectory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[BATCH];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void chargeThenBlock(Batch batch) {
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < BATCH; i += 2) {
+            var walletId = random.nextInt(WALLETS);
+            batch.futures[i] = engine.submit(walletId, WalletCommand.charge(1L));
+            batch.futures[i + 1] = engine.submit(walletId, WalletCommand.block(1L, SettlementDelay.T_PLUS_3));
+        }
+        CompletableFuture.allOf(batch.futures).join();
+    }
+}
@@ -6,7 +6,7 @@ import lombok.experimental.Accessors;
 @Value
 @Accessors(fluent = true)
 public class Balance {
-    private Long value;
+    private long value;
 
     public Balance minus(Money money) {
         return new Balance(value - money.value());
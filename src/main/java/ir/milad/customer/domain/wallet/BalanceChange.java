@@ -0,0 +1,45 @@
+package ir.milad.customer.domain.wallet;
+
+// latest buying power and blocked money of every delay of a wallet, as a subscriber of BalancePublisher gets it.
+// version is the wallet's, so of two changes of the same wallet the one with the higher version is the newer
+public final class BalanceChange {
+    private final long walletId;
+    private final long version;
+    // buying power then blocked money of every delay
+    private final long[] balances;
+
+    BalanceChange(long walletId, WalletView view) {
+        this.walletId = walletId;
+        this.version = view.version();
+        var delays = SettlementDelay.count();
+        balances = new long[2 * delays];
+        for (int i = 0; i < delays; i++) {
+            balances[i] = view.buyingPowerRaw(SettlementDelay.of(i));
+            balances[delays + i] = view.blocked(SettlementDelay.of(i));
+        }
+    }
+
+    public long walletId() {
+        return walletId;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public long buyingPowerRaw(SettlementDelay delay) {
+        return balances[delay.ordinal()];
+    }
+
+    public long blocked(SettlementDelay delay) {
+        return balances[SettlementDelay.count() + delay.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        var text = new StringBuilder("BalanceChange(walletId=").append(walletId).append(", version=").append(version);
+        for (SettlementDelay delay : SettlementDelay.values())
+            text.append(", ").append(delay).append('=').append(buyingPowerRaw(delay)).append('/').append(blocked(delay));
+        return text.append(')').toString();
+    }
+}
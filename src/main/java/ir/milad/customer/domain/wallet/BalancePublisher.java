@@ -0,0 +1,194 @@
+package ir.milad.customer.domain.wallet;
+
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// publishes the wallets changed by the engine. writers only mark a wallet dirty for every subscriber,
+// an event is built when the subscriber has demand for it, from the wallet's latest state read without a lock,
+// so every change of a wallet made before its event was delivered is coalesced into that one event.
+// a subscriber is never sent more than it requested and a slow one only grows its set of dirty wallets,
+// at most one entry per wallet, without holding back the writers or the other subscribers
+public class BalancePublisher implements Flow.Publisher<BalanceChange>, AutoCloseable {
+    private final WalletRegistry registry;
+    private final Executor executor;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    public BalancePublisher(WalletRegistry registry, Executor executor) {
+        this.registry = Objects.requireNonNull(registry);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    // signals are delivered serially per subscriber on the executor, onSubscribe included
+    @Override
+    public void subscribe(Flow.Subscriber<? super BalanceChange> subscriber) {
+        Objects.requireNonNull(subscriber);
+        var subscription = new Subscription(subscriber);
+        if (closed) {
+            subscription.complete();
+        } else {
+            subscriptions.add(subscription);
+            // a close racing the add may have missed it
+            if (closed)
+                subscription.complete();
+        }
+        subscription.signal();
+    }
+
+    // called by the writer of the wallet after it changed
+    void changed(long walletId) {
+        for (Subscription subscription : subscriptions)
+            subscription.markDirty(walletId);
+    }
+
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    // subscribers get the wallets still dirty as their demand allows, then onComplete
+    @Override
+    public void close() {
+        closed = true;
+        for (Subscription subscription : subscriptions) {
+            subscription.complete();
+            subscription.signal();
+        }
+    }
+
+    private final class Subscription implements Flow.Subscription {
+        private static final int INITIAL_QUEUE_SIZE = 16;
+
+        private final Flow.Subscriber<? super BalanceChange> subscriber;
+        private final WalletView view = new WalletView();
+        private final AtomicLong requested = new AtomicLong();
+        // drain runs while this is non-zero, a signal during a drain makes it loop once more
+        private final AtomicInteger signals = new AtomicInteger();
+        // dirty wallets in the order they got dirty, guarded by this
+        private final LongObjectHashMap<Boolean> dirty = new LongObjectHashMap<>(INITIAL_QUEUE_SIZE);
+        private long[] queue = new long[INITIAL_QUEUE_SIZE];
+        private int head;
+        private int size;
+        private volatile boolean completing;
+        private volatile boolean cancelled;
+        private Throwable failure;
+        // touched by drain only
+        private boolean subscribed;
+        private boolean terminated;
+
+        Subscription(Flow.Subscriber<? super BalanceChange> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void markDirty(long walletId) {
+            synchronized (this) {
+                if (dirty.put(walletId, Boolean.TRUE) != null)
+                    return;
+                if (size == queue.length)
+                    grow();
+                queue[(head + size) & (queue.length - 1)] = walletId;
+                size++;
+            }
+            if (requested.get() > 0)
+                signal();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                synchronized (this) {
+                    failure = new IllegalArgumentException(String.format("Requested %s but must request a positive number", n));
+                }
+            } else {
+                requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void complete() {
+            completing = true;
+        }
+
+        void signal() {
+            if (signals.getAndIncrement() == 0)
+                executor.execute(this::drain);
+        }
+
+        private void drain() {
+            var missed = 1;
+            do {
+                deliver();
+                missed = signals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            if (terminated)
+                return;
+            try {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (!cancelled && failure == null && requested.get() > 0) {
+                    var walletId = poll();
+                    if (walletId == null)
+                        break;
+                    // the dirty mark was dropped before the read, a change landing after it marks the wallet again
+                    var change = new BalanceChange(walletId, registry.get(walletId).read(view));
+                    if (requested.get() != Long.MAX_VALUE)
+                        requested.decrementAndGet();
+                    subscriber.onNext(change);
+                }
+                if (cancelled) {
+                    terminated = true;
+                } else if (failure != null) {
+                    terminate();
+                    subscriber.onError(failure);
+                } else if (completing && isEmpty()) {
+                    terminate();
+                    subscriber.onComplete();
+                }
+            } catch (RuntimeException e) {
+                // a subscriber broke the protocol by throwing, it gets nothing more
+                terminate();
+            }
+        }
+
+        private void terminate() {
+            terminated = true;
+            cancel();
+        }
+
+        private synchronized Long poll() {
+            if (size == 0)
+                return null;
+            var walletId = queue[head];
+            head = (head + 1) & (queue.length - 1);
+            size--;
+            dirty.remove(walletId);
+            return walletId;
+        }
+
+        private synchronized boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void grow() {
+            var grown = new long[queue.length << 1];
+            for (int i = 0; i < size; i++)
+                grown[i] = queue[(head + i) & (queue.length - 1)];
+            queue = grown;
+            head = 0;
+        }
+    }
+}
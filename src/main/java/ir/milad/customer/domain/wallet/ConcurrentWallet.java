@@ -0,0 +1,262 @@
+package ir.milad.customer.domain.wallet;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+// mutations run the whole debt cascade under the write lock,
+// buying power reads are optimistic and only fall back to the read lock when a write raced them.
+// transfers lock every wallet they touch in one global order, so two of them never wait on each other
+public class ConcurrentWallet {
+    private static final AtomicLong NEXT_ORDER = new AtomicLong();
+
+    private final Wallet wallet;
+
+    private final StampedLock lock;
+
+    // position of the wallet in the lock order
+    private final long order;
+
+    public ConcurrentWallet() {
+        this(new Wallet());
+    }
+
+    public ConcurrentWallet(FirmExposure exposure) {
+        this(new Wallet(exposure));
+    }
+
+    ConcurrentWallet(Wallet wallet) {
+        this.wallet = Objects.requireNonNull(wallet);
+        this.lock = new StampedLock();
+        this.order = NEXT_ORDER.getAndIncrement();
+    }
+
+    public void block(Money toBlock, SettlementDelay highestDelay) {
+        Objects.requireNonNull(toBlock);
+        blockRaw(toBlock.value(), highestDelay);
+    }
+
+    public void blockRaw(long toBlock, SettlementDelay highestDelay) {
+        var stamp = lock.writeLock();
+        try {
+            wallet.blockRaw(toBlock, highestDelay);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public OperationResult tryBlock(long amount, SettlementDelay delay, OperationResult result) {
+        var stamp = lock.writeLock();
+        try {
+            return wallet.tryBlock(amount, delay, result);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void charge(Money money) {
+        Objects.requireNonNull(money);
+        chargeRaw(money.value());
+    }
+
+    public void chargeRaw(long money) {
+        var stamp = lock.writeLock();
+        try {
+            wallet.chargeRaw(money);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void deposit(Money money, SettlementDelay delay) {
+        Objects.requireNonNull(money);
+        depositRaw(money.value(), delay);
+    }
+
+    public void depositRaw(long money, SettlementDelay delay) {
+        var stamp = lock.writeLock();
+        try {
+            wallet.depositRaw(money, delay);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void spend(Money toSpend, SettlementDelay delay) {
+        Objects.requireNonNull(toSpend);
+        spendRaw(toSpend.value(), delay);
+    }
+
+    public void spendRaw(long toSpend, SettlementDelay delay) {
+        var stamp = lock.writeLock();
+        try {
+            wallet.spendRaw(toSpend, delay);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public OperationResult trySpend(long amount, SettlementDelay delay, OperationResult result) {
+        var stamp = lock.writeLock();
+        try {
+            return wallet.trySpend(amount, delay, result);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void unblock(Money toUnblock, SettlementDelay delay) {
+        Objects.requireNonNull(toUnblock);
+        unblockRaw(toUnblock.value(), delay);
+    }
+
+    public void unblockRaw(long toUnblock, SettlementDelay delay) {
+        var stamp = lock.writeLock();
+        try {
+            wallet.unblockRaw(toUnblock, delay);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public OperationResult tryUnblock(long amount, SettlementDelay delay, OperationResult result) {
+        var stamp = lock.writeLock();
+        try {
+            return wallet.tryUnblock(amount, delay, result);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void transfer(ConcurrentWallet to, Money amount, SettlementDelay fromDelay, SettlementDelay toDelay) {
+        Objects.requireNonNull(amount);
+        transferRaw(to, amount.value(), fromDelay, toDelay);
+    }
+
+    // moves blocked money of fromDelay, see Wallet.transferRaw. atomic only for writers, which take both locks:
+    // read() and buying power reads take one wallet at a time and may see the money left this wallet before
+    // it reached the other one
+    public void transferRaw(ConcurrentWallet to, long amount, SettlementDelay fromDelay, SettlementDelay toDelay) {
+        transfer(to, amount, fromDelay, toDelay, null);
+    }
+
+    public OperationResult tryTransfer(ConcurrentWallet to, long amount, SettlementDelay fromDelay, SettlementDelay toDelay, OperationResult result) {
+        Objects.requireNonNull(result);
+        return transfer(to, amount, fromDelay, toDelay, result);
+    }
+
+    // a null result throws on rejection instead
+    private OperationResult transfer(ConcurrentWallet to, long amount, SettlementDelay fromDelay, SettlementDelay toDelay, OperationResult result) {
+        Objects.requireNonNull(to);
+        var first = order <= to.order ? this : to;
+        var second = first == this ? to : this;
+        var firstStamp = first.lock.writeLock();
+        try {
+            var secondStamp = second == first ? 0 : second.lock.writeLock();
+            try {
+                if (result == null) {
+                    wallet.transferRaw(to.wallet, amount, fromDelay, toDelay);
+                    return null;
+                }
+                return wallet.tryTransfer(to.wallet, amount, fromDelay, toDelay, result);
+            } finally {
+                if (second != first)
+                    second.lock.unlockWrite(secondStamp);
+            }
+        } finally {
+            first.lock.unlockWrite(firstStamp);
+        }
+    }
+
+    // every wallet of the batch is locked once, in the lock order, and the transfers run in order under those locks
+    // like Wallet.apply: a rejected one doesn't stop the ones after it. results[i] gets the outcome of transfers[i]
+    // and the number of successful transfers is returned. a batch pays the locking once for all its transfers
+    public static int transfer(WalletTransfer[] transfers, OperationResult[] results) {
+        if (results.length < transfers.length)
+            throw new IllegalArgumentException(String.format("Required %s results but had %s", transfers.length, results.length));
+        var wallets = inLockOrder(transfers);
+        var stamps = new long[wallets.length];
+        var locked = 0;
+        try {
+            for (; locked < wallets.length; locked++)
+                stamps[locked] = wallets[locked].lock.writeLock();
+            var succeeded = 0;
+            for (int i = 0; i < transfers.length; i++) {
+                var transfer = transfers[i];
+                var result = transfer.from().wallet.tryTransfer(transfer.to().wallet, transfer.amount(), transfer.fromDelay(), transfer.toDelay(), results[i]);
+                if (result.isSuccess())
+                    succeeded++;
+            }
+            return succeeded;
+        } finally {
+            for (int i = locked - 1; i >= 0; i--)
+                wallets[i].lock.unlockWrite(stamps[i]);
+        }
+    }
+
+    // the distinct wallets of the batch sorted by their lock order. batches are small,
+    // an insertion sort dropping duplicates as it goes beats a general sort there
+    private static ConcurrentWallet[] inLockOrder(WalletTransfer[] transfers) {
+        var wallets = new ConcurrentWallet[2 * transfers.length];
+        var distinct = 0;
+        for (WalletTransfer transfer : transfers) {
+            distinct = insert(wallets, distinct, transfer.from());
+            distinct = insert(wallets, distinct, transfer.to());
+        }
+        return distinct == wallets.length ? wallets : Arrays.copyOf(wallets, distinct);
+    }
+
+    private static int insert(ConcurrentWallet[] wallets, int size, ConcurrentWallet wallet) {
+        var i = size;
+        while (i > 0 && wallets[i - 1].order > wallet.order)
+            i--;
+        if (i > 0 && wallets[i - 1] == wallet)
+            return size;
+        System.arraycopy(wallets, i, wallets, i + 1, size - i);
+        wallets[i] = wallet;
+        return size + 1;
+    }
+
+    public void rollSettlement() {
+        var stamp = lock.writeLock();
+        try {
+            wallet.rollSettlement();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // the whole batch runs under one write lock
+    public int apply(WalletCommand[] commands, OperationResult[] results) {
+        var stamp = lock.writeLock();
+        try {
+            return wallet.apply(commands, results);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // takes no lock, the wallet's own version tells a consistent copy from one raced by a writer
+    public WalletView read(WalletView view) {
+        return wallet.read(view);
+    }
+
+    public Money buyingPower(SettlementDelay delay) {
+        return Money.of(buyingPowerRaw(delay));
+    }
+
+    public long buyingPowerRaw(SettlementDelay delay) {
+        var stamp = lock.tryOptimisticRead();
+        var buyingPower = wallet.buyingPowerRaw(delay);
+        if (lock.validate(stamp))
+            return buyingPower;
+
+        stamp = lock.readLock();
+        try {
+            return wallet.buyingPowerRaw(delay);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ir.milad.customer.domain.wallet;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+// cash, blocked money and debts of a group of wallets summed per delay, so a firm wide query is
+// a handful of sums whatever the number of wallets. kept incrementally by the wallets as they change,
+// in striped LongAdders laid out like the leading part of a wallet state. a query racing mutations may see
+// one step of a cascade but not the next, the sums are exact once the wallets are quiet.
+// a registry owns one for its wallets and a mapped store counts in the one it was opened with while it is open,
+// so the sums go away with the registry or store they belong to
+public final class FirmExposure {
+    // cash and blocked of every delay then the debt triangle, indexed like Wallet's state
+    private final LongAdder[] totals = new LongAdder[Wallet.BUYING_POWERS];
+
+    public FirmExposure() {
+        for (int i = 0; i < totals.length; i++)
+            totals[i] = new LongAdder();
+    }
+
+    public long cash(SettlementDelay delay) {
+        return totals[InternalWallet.cashIndex(delay)].sum();
+    }
+
+    public long blocked(SettlementDelay delay) {
+        return totals[InternalWallet.cashIndex(delay) + 1].sum();
+    }
+
+    // what every borrower delay owes the lender, which must be a lower delay
+    public long debt(SettlementDelay lender, SettlementDelay borrower) {
+        return totals[Wallet.DebtSupervisor.index(lender, borrower)].sum();
+    }
+
+    // what the delay owes all lower delays
+    public long borrowed(SettlementDelay borrower) {
+        var borrowed = 0L;
+        var debts = Wallet.DebtSupervisor.debtsOf(borrower);
+        for (int i = debts; i < debts + borrower.ordinal(); i++)
+            borrowed += totals[i].sum();
+        return borrowed;
+    }
+
+    // what all higher delays owe the delay
+    public long lent(SettlementDelay lender) {
+        var lent = 0L;
+        for (int i = lender.ordinal() + 1; i < SettlementDelay.count(); i++)
+            lent += totals[Wallet.DebtSupervisor.debtsOf(SettlementDelay.of(i)) + lender.ordinal()].sum();
+        return lent;
+    }
+
+    void cashChanged(SettlementDelay delay, long amount) {
+        totals[InternalWallet.cashIndex(delay)].add(amount);
+    }
+
+    void blockedChanged(SettlementDelay delay, long amount) {
+        totals[InternalWallet.cashIndex(delay) + 1].add(amount);
+    }
+
+    // cash moving into blocked money of the same delay, or back when negative
+    void blockChanged(SettlementDelay delay, long amount) {
+        var index = InternalWallet.cashIndex(delay);
+        totals[index].add(-amount);
+        totals[index + 1].add(amount);
+    }
+
+    void debtChanged(SettlementDelay lender, SettlementDelay borrower, long amount) {
+        totals[Wallet.DebtSupervisor.index(lender, borrower)].add(amount);
+    }
+
+    // a wallet state going from one array to the other in one step, only what differs is added
+    void moved(long[] from, long[] to) {
+        for (int i = 0; i < totals.length; i++)
+            if (from[i] != to[i])
+                totals[i].add(to[i] - from[i]);
+    }
+
+    // a whole wallet state stored outside the heap joining the sums, or leaving them with a sign of -1
+    void stored(LongBuffer source, int index, long sign) {
+        for (int i = 0; i < totals.length; i++) {
+            var amount = source.get(index + i);
+            if (amount != 0)
+                totals[i].add(sign * amount);
+        }
+    }
+}
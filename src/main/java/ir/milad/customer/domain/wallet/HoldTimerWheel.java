@@ -0,0 +1,162 @@
+package ir.milad.customer.domain.wallet;
+
+import java.util.function.Consumer;
+
+// hashed timing wheel of pending holds: a hold is linked into the bucket of its deadline tick and a bucket is
+// visited once per revolution, firing only the holds whose deadline passed, the rest wait for a later revolution.
+// insert and cancel are O(1) and nothing runs per hold, the owner drives it by calling advance.
+// not thread-safe, meant to be owned by the single thread mutating the wallets it holds money of
+class HoldTimerWheel {
+    private final Hold[] buckets;
+    private final int mask;
+    private final long tickMillis;
+    private final LongObjectHashMap<Hold> holds;
+    // the first tick whose bucket has not been visited yet
+    private long currentTick;
+
+    HoldTimerWheel(int wheelSize, long tickMillis, long nowMillis) {
+        if (wheelSize <= 0 || tickMillis <= 0)
+            throw new IllegalArgumentException("Wheel size and tick must be positive");
+        buckets = new Hold[Integer.highestOneBit(wheelSize * 2 - 1)];
+        mask = buckets.length - 1;
+        this.tickMillis = tickMillis;
+        holds = new LongObjectHashMap<>(wheelSize);
+        currentTick = nowMillis / tickMillis;
+    }
+
+    // false when a hold with this id is already pending
+    public boolean schedule(long holdId, long walletId, long amount, SettlementDelay delay, long deadlineMillis) {
+        if (holds.get(holdId) != null)
+            return false;
+        var deadlineTick = Math.max(Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis), currentTick);
+        var hold = new Hold(holdId, walletId, amount, delay, deadlineMillis, deadlineTick);
+        link(hold);
+        holds.put(holdId, hold);
+        return true;
+    }
+
+    public Hold get(long holdId) {
+        return holds.get(holdId);
+    }
+
+    // the cancelled hold, or null when it already expired or never existed
+    public Hold cancel(long holdId) {
+        var hold = holds.remove(holdId);
+        if (hold != null)
+            unlink(hold);
+        return hold;
+    }
+
+    // fires every hold whose deadline is at or before now and returns how many did
+    public int advance(long nowMillis, ExpiryHandler handler) {
+        var nowTick = nowMillis / tickMillis;
+        if (nowTick < currentTick)
+            return 0;
+        // after a pause longer than a revolution every bucket is visited once, not once per missed revolution
+        var lastTick = Math.min(nowTick, currentTick + mask);
+        var expired = 0;
+        for (var tick = currentTick; tick <= lastTick; tick++)
+            expired += expireBucket((int) tick & mask, nowTick, handler);
+        currentTick = nowTick + 1;
+        return expired;
+    }
+
+    // pending holds follow their money down a tier at settlement cut-off
+    public void rollSettlement() {
+        holds.forEach((holdId, hold) -> hold.delay = hold.delay.rolled());
+    }
+
+    public int size() {
+        return holds.size();
+    }
+
+    // every pending hold in no particular order, for snapshots
+    public void forEach(Consumer<Hold> consumer) {
+        holds.forEach((holdId, hold) -> consumer.accept(hold));
+    }
+
+    private int expireBucket(int bucket, long nowTick, ExpiryHandler handler) {
+        var expired = 0;
+        var hold = buckets[bucket];
+        while (hold != null) {
+            var next = hold.next;
+            if (hold.deadlineTick <= nowTick) {
+                holds.remove(hold.holdId);
+                unlink(hold);
+                handler.expired(hold);
+                expired++;
+            }
+            hold = next;
+        }
+        return expired;
+    }
+
+    private void link(Hold hold) {
+        var bucket = (int) hold.deadlineTick & mask;
+        var head = buckets[bucket];
+        hold.next = head;
+        if (head != null)
+            head.previous = hold;
+        buckets[bucket] = hold;
+    }
+
+    private void unlink(Hold hold) {
+        if (hold.previous != null)
+            hold.previous.next = hold.next;
+        else
+            buckets[(int) hold.deadlineTick & mask] = hold.next;
+        if (hold.next != null)
+            hold.next.previous = hold.previous;
+        hold.previous = null;
+        hold.next = null;
+    }
+
+    static final class Hold {
+        private final long holdId;
+        private final long walletId;
+        private final long deadlineMillis;
+        private final long deadlineTick;
+        private SettlementDelay delay;
+        private long amount;
+        private Hold previous;
+        private Hold next;
+
+        private Hold(long holdId, long walletId, long amount, SettlementDelay delay, long deadlineMillis, long deadlineTick) {
+            this.holdId = holdId;
+            this.walletId = walletId;
+            this.amount = amount;
+            this.delay = delay;
+            this.deadlineMillis = deadlineMillis;
+            this.deadlineTick = deadlineTick;
+        }
+
+        long holdId() {
+            return holdId;
+        }
+
+        long walletId() {
+            return walletId;
+        }
+
+        long amount() {
+            return amount;
+        }
+
+        SettlementDelay delay() {
+            return delay;
+        }
+
+        long deadlineMillis() {
+            return deadlineMillis;
+        }
+
+        // what is left of the hold after part of it was spent
+        void reduce(long spent) {
+            amount -= spent;
+        }
+    }
+
+    interface ExpiryHandler {
+        void expired(Hold hold);
+    }
+}
@@ -1,6 +1,8 @@
 package ir.milad.customer.domain.wallet;
 
 public class InsufficientFundsException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
     public InsufficientFundsException() {
     }
 
@@ -1,49 +1,78 @@
 package ir.milad.customer.domain.wallet;
 
-import lombok.Getter;
-
+// cash and blocked money of one delay, two adjacent longs at the start of the wallet state.
+// an instance is a read-only view over them, the wallet mutates its state through the static methods
 class InternalWallet {
-    private Balance cash;
-    @Getter
-    private Balance blocked;
+    private final long[] state;
+    private final int cash;
 
-    public InternalWallet() {
-        cash = new Balance(0L);
-        blocked = new Balance(0L);
+    InternalWallet(long[] state, SettlementDelay delay) {
+        this.state = state;
+        this.cash = cashIndex(delay);
     }
 
-    public void block(Money block) {
-        if (cash.isLessThan(block))
-            throw new InsufficientFundsException(String.format("Required %s for withdraw but had %s", block.value(), cash.value()));
+    static void block(long[] state, SettlementDelay delay, long block) {
+        var index = cashIndex(delay);
+        var cash = state[index];
+        if (cash < block)
+            throw new InsufficientFundsException(String.format("Required %s for withdraw but had %s", block, cash));
+
+        state[index] = cash - block;
+        state[index + 1] += block;
+    }
 
-        cash = cash.minus(block);
-        blocked = blocked.plus(block);
+    static void deposit(long[] state, SettlementDelay delay, long deposit) {
+        state[cashIndex(delay)] += deposit;
     }
 
-    public void deposit(Money deposit) {
-        cash = cash.plus(deposit);
+    static void spend(long[] state, SettlementDelay delay, long spend) {
+        var index = cashIndex(delay) + 1;
+        var blocked = state[index];
+        if (blocked < spend)
+            throw new InsufficientFundsException(String.format("Required %s for spending but had %s", spend, blocked));
+
+        state[index] = blocked - spend;
     }
 
-    public void withdraw(Money withdraw) {
-        cash = cash.minus(withdraw);
+    static void unblock(long[] state, SettlementDelay delay, long unblock) {
+        var index = cashIndex(delay);
+        var blocked = state[index + 1];
+        if (blocked < unblock)
+            throw new InsufficientFundsException(String.format("Required %s for unblock but had %s", unblock, blocked));
+
+        state[index + 1] = blocked - unblock;
+        state[index] += unblock;
     }
 
-    public void spend(Money spend) {
-        if (blocked.isLessThan(spend))
-            throw new InsufficientFundsException(String.format("Required %s for spending but had %s", spend.value(), blocked.value()));
+    static long cash(long[] state, SettlementDelay delay) {
+        return state[cashIndex(delay)];
+    }
 
-        blocked = blocked.minus(spend);
+    static long blocked(long[] state, SettlementDelay delay) {
+        return state[cashIndex(delay) + 1];
     }
 
-    public void unblock(Money unblock) {
-        if (blocked.isLessThan(unblock))
-            throw new InsufficientFundsException(String.format("Required %s for unblock but had %s", unblock.value(), blocked.value()));
+    static void restore(long[] state, SettlementDelay delay, long cash, long blocked) {
+        if (cash < 0 || blocked < 0)
+            throw new IllegalArgumentException("Money can't have negative value");
+        var index = cashIndex(delay);
+        state[index] = cash;
+        state[index + 1] = blocked;
+    }
+
+    static int cashIndex(SettlementDelay delay) {
+        return 2 * delay.ordinal();
+    }
+
+    public long buyingPower() {
+        return state[cash];
+    }
 
-        blocked = blocked.minus(unblock);
-        cash = cash.plus(unblock);
+    public long blocked() {
+        return state[cash + 1];
     }
 
-    public Balance buyingPower() {
-        return cash;
+    public Balance getBlocked() {
+        return new Balance(blocked());
     }
 }
@@ -0,0 +1,9 @@
+package ir.milad.customer.domain.wallet;
+
+public enum JournalDurability {
+    // a group commit is forced to the storage device before any of its commands complete
+    FSYNC,
+    // a group commit is handed to the OS before its commands complete,
+    // it survives a process crash but not a power loss
+    WRITE
+}
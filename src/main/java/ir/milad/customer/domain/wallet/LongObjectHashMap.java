@@ -0,0 +1,132 @@
+package ir.milad.customer.domain.wallet;
+
+import java.util.Arrays;
+
+// open addressing with linear probing over primitive keys, a null value marks a free slot
+class LongObjectHashMap<V> {
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeAt;
+
+    LongObjectHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    static long mix(long key) {
+        var h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        var mask = keys.length - 1;
+        for (int i = (int) mix(key) & mask; values[i] != null; i = (i + 1) & mask)
+            if (keys[i] == key)
+                return (V) values[i];
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null values are not supported");
+        var mask = keys.length - 1;
+        var i = (int) mix(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                var previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt)
+            resize(keys.length << 1);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        var mask = keys.length - 1;
+        for (int i = (int) mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                var removed = (V) values[i];
+                shiftBack(i, mask);
+                size--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<V> consumer) {
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null)
+                consumer.accept(keys[i], (V) values[i]);
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    // backward shift deletion: entries of the probe run after the freed slot move into it unless that would put them
+    // before their home slot, so the run stays unbroken and no tombstones are needed
+    private void shiftBack(int free, int mask) {
+        for (int i = (free + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            var home = (int) mix(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        values[free] = null;
+    }
+
+    private void resize(int capacity) {
+        var oldKeys = keys;
+        var oldValues = values;
+        allocate(capacity);
+        var mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == null)
+                continue;
+            var i = (int) mix(oldKeys[j]) & mask;
+            while (values[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        resizeAt = capacity / 2;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize) * 2 - 1) << 1;
+        if (capacity <= 0)
+            throw new IllegalArgumentException(String.format("Can't hold %s entries", expectedSize));
+        return capacity;
+    }
+
+    interface Consumer<V> {
+        void accept(long key, V value);
+    }
+}
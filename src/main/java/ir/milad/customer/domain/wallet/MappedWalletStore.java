@@ -0,0 +1,258 @@
+package ir.milad.customer.domain.wallet;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+// wallets outside the heap: an open addressing table of fixed size slots in a memory-mapped file, probed linearly
+// by customer id. a slot is customerId(8) occupied(8) and the whole wallet state, so the heap holds nothing per wallet
+// and the state outlives the process in the page cache, force makes it durable against an os crash as well.
+// header(magic, version, delays, slotLongs, slots, size) is padded to 64 bytes, numbers are little endian.
+// an operation loads its slot into a scratch wallet, runs there and is stored back only when it succeeded,
+// so a rejected or failed operation leaves the slot untouched. slots are fixed at creation and never removed,
+// so only a charge or a deposit takes one.
+// opened with a firm exposure the stored wallets join it when the store opens and leave it when it closes
+// not thread-safe, meant to be owned by a single writer like a WalletEngine shard
+public class MappedWalletStore implements AutoCloseable {
+    private static final int MAGIC = 0x574D5354;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOTS_OFFSET = 4 * Integer.BYTES;
+    private static final int SIZE_OFFSET = SLOTS_OFFSET + Long.BYTES;
+    private static final int KEY = 0;
+    private static final int OCCUPIED = 1;
+    private static final int STATE = 2;
+    private static final int SLOT_LONGS = STATE + Wallet.STATE_LENGTH;
+    private static final int SLOT_SIZE = SLOT_LONGS * Long.BYTES;
+    // mapped regions are capped below 2GB and hold a power of two slots so a slot finds its region by a shift
+    private static final long MAX_REGION_SIZE = 1L << 30;
+    // the state of a customer without a slot, only ever read
+    private static final LongBuffer EMPTY = LongBuffer.allocate(Wallet.STATE_LENGTH);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] mappedRegions;
+    private final LongBuffer[] regions;
+    private final int regionShift;
+    private final long regionMask;
+    private final long slotMask;
+    private final long maxSize;
+    private final FirmExposure exposure;
+    private final Wallet scratch;
+    private long size;
+
+    private MappedWalletStore(FileChannel channel, MappedByteBuffer header, long slots, FirmExposure exposure) throws IOException {
+        this.channel = channel;
+        this.header = header;
+        this.exposure = exposure;
+        this.scratch = new Wallet(exposure);
+        var slotsPerRegion = Math.min(slots, Long.highestOneBit(MAX_REGION_SIZE / SLOT_SIZE));
+        regionShift = Long.numberOfTrailingZeros(slotsPerRegion);
+        regionMask = slotsPerRegion - 1;
+        slotMask = slots - 1;
+        maxSize = slots / 4 * 3;
+        mappedRegions = new MappedByteBuffer[(int) (slots / slotsPerRegion)];
+        regions = new LongBuffer[mappedRegions.length];
+        for (int i = 0; i < regions.length; i++) {
+            mappedRegions[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * slotsPerRegion * SLOT_SIZE, slotsPerRegion * SLOT_SIZE);
+            regions[i] = mappedRegions[i].order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        }
+        size = header.getLong(SIZE_OFFSET);
+        addToExposure(1);
+    }
+
+    // an existing store is opened with the capacity it was created with, expectedWallets only sizes a new one
+    public static MappedWalletStore open(Path file, long expectedWallets) throws IOException {
+        return open(file, expectedWallets, null);
+    }
+
+    public static MappedWalletStore open(Path file, long expectedWallets, FirmExposure exposure) throws IOException {
+        Objects.requireNonNull(file);
+        if (expectedWallets < 0)
+            throw new IllegalArgumentException("Expected wallets can't be negative");
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            var existing = channel.size() > 0;
+            var header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            var slots = existing ? readHeader(file, channel, header) : writeHeader(header, slotsFor(expectedWallets));
+            return new MappedWalletStore(channel, header, slots, exposure);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // applies the command to the customer's wallet, a charge or a deposit creates it when missing
+    public void apply(long customerId, WalletCommand command) {
+        var slot = slotFor(customerId, command);
+        load(slot);
+        command.applyTo(scratch);
+        store(slot);
+    }
+
+    public OperationResult tryApply(long customerId, WalletCommand command, OperationResult result) {
+        var slot = slotFor(customerId, command);
+        load(slot);
+        if (command.tryApplyTo(scratch, result).isSuccess())
+            store(slot);
+        return result;
+    }
+
+    // read straight from the slot, zero for a customer without a wallet
+    public long buyingPowerRaw(long customerId, SettlementDelay delay) {
+        var slot = find(customerId);
+        if (slot < 0)
+            return 0;
+        return region(slot).get(index(slot) + STATE + Wallet.BUYING_POWERS + delay.ordinal());
+    }
+
+    // a heap copy of the customer's wallet, null when there is none
+    public Wallet copyOf(long customerId) {
+        var slot = find(customerId);
+        if (slot < 0)
+            return null;
+        var copy = new Wallet();
+        copy.loadState(region(slot), index(slot) + STATE);
+        return copy;
+    }
+
+    public boolean contains(long customerId) {
+        return find(customerId) >= 0;
+    }
+
+    public void rollSettlement() {
+        for (long slot = 0; slot <= slotMask; slot++) {
+            if (region(slot).get(index(slot) + OCCUPIED) == 0)
+                continue;
+            load(slot);
+            scratch.rollSettlement();
+            store(slot);
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // how many wallets fit before the store refuses new ones
+    public long capacity() {
+        return maxSize;
+    }
+
+    // writes dirty pages back to the file, without it they reach the disk whenever the os decides
+    public void force() {
+        for (MappedByteBuffer region : mappedRegions)
+            region.force();
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+        try {
+            addToExposure(-1);
+            force();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void addToExposure(long sign) {
+        if (exposure == null || size == 0)
+            return;
+        for (long slot = 0; slot <= slotMask; slot++)
+            if (region(slot).get(index(slot) + OCCUPIED) != 0)
+                exposure.stored(region(slot), index(slot) + STATE, sign);
+    }
+
+    // anything but a charge or a deposit on a customer without a slot runs on an empty wallet that is never stored,
+    // it is rejected like on a new wallet but a rejected command can't fill the store
+    private long slotFor(long customerId, WalletCommand command) {
+        var type = command.type();
+        return type == WalletCommand.Type.CHARGE || type == WalletCommand.Type.DEPOSIT ? getOrCreate(customerId) : find(customerId);
+    }
+
+    private long getOrCreate(long customerId) {
+        var slot = find(customerId);
+        if (slot >= 0)
+            return slot;
+        if (size == maxSize)
+            throw new IllegalStateException(String.format("Wallet store is full with %s wallets", size));
+        slot = -slot - 1;
+        var region = region(slot);
+        var index = index(slot);
+        // a never used slot is all zeros, so its state is already an empty wallet
+        region.put(index + KEY, customerId);
+        region.put(index + OCCUPIED, 1);
+        header.putLong(SIZE_OFFSET, ++size);
+        return slot;
+    }
+
+    // the slot holding the customer, or -(slot + 1) of the free slot it would go to
+    private long find(long customerId) {
+        for (long slot = LongObjectHashMap.mix(customerId) & slotMask; ; slot = (slot + 1) & slotMask) {
+            var region = region(slot);
+            var index = index(slot);
+            if (region.get(index + OCCUPIED) == 0)
+                return -slot - 1;
+            if (region.get(index + KEY) == customerId)
+                return slot;
+        }
+    }
+
+    private void load(long slot) {
+        if (slot < 0)
+            scratch.loadState(EMPTY, 0);
+        else
+            scratch.loadState(region(slot), index(slot) + STATE);
+    }
+
+    private void store(long slot) {
+        if (slot >= 0)
+            scratch.storeState(region(slot), index(slot) + STATE);
+    }
+
+    private LongBuffer region(long slot) {
+        return regions[(int) (slot >>> regionShift)];
+    }
+
+    private int index(long slot) {
+        return (int) (slot & regionMask) * SLOT_LONGS;
+    }
+
+    // a power of two kept at most three quarters full
+    private static long slotsFor(long expectedWallets) {
+        var slots = Long.highestOneBit(Math.max(8, expectedWallets + expectedWallets / 3 + 1) * 2 - 1);
+        if (slots <= 0 || slots > Long.MAX_VALUE / SLOT_SIZE)
+            throw new IllegalArgumentException(String.format("Can't hold %s wallets", expectedWallets));
+        return slots;
+    }
+
+    private static long writeHeader(MappedByteBuffer header, long slots) {
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(SettlementDelay.count())
+                .putInt(SLOT_LONGS)
+                .putLong(slots)
+                .putLong(0);
+        return slots;
+    }
+
+    private static long readHeader(Path file, FileChannel channel, MappedByteBuffer header) throws IOException {
+        if (header.getInt() != MAGIC || header.getInt() != VERSION)
+            throw new IOException(String.format("%s is not a wallet store of version %s", file, VERSION));
+        if (header.getInt() != SettlementDelay.count() || header.getInt() != SLOT_LONGS)
+            throw new IOException(String.format("Wallet store %s was written with another set of settlement delays", file));
+        var slots = header.getLong();
+        if (slots <= 0 || Long.bitCount(slots) != 1 || channel.size() < HEADER_SIZE + slots * SLOT_SIZE)
+            throw new IOException(String.format("Wallet store %s is truncated", file));
+        return slots;
+    }
+}
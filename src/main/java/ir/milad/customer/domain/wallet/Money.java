@@ -8,12 +8,12 @@ import lombok.experimental.Accessors;
 public class Money {
     public static final Money ZERO = new Money(0L);
 
-    public static Money of(Long value) {
+    public static Money of(long value) {
         return new Money(value);
     }
-    Long value;
+    long value;
 
-    private Money(Long value) {
+    private Money(long value) {
         if (value < 0)
             throw new IllegalArgumentException("Money can't have negative value");
         this.value = value;
@@ -39,7 +39,7 @@ public class Money {
         return new Money(value + money.value);
     }
 
-    public Money plus(Long money) {
+    public Money plus(long money) {
         return new Money(value + money);
     }
 }
@@ -0,0 +1,67 @@
+package ir.milad.customer.domain.wallet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+// bounded multi-producer single-consumer queue, every slot carries a sequence telling
+// producers when it is free and the consumer when it is published
+class MpscRingBuffer<E> {
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail;
+    private long head;
+
+    MpscRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Ring buffer capacity must be a power of two");
+        elements = new Object[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+        mask = capacity - 1;
+        tail = new AtomicLong();
+    }
+
+    public boolean offer(E element) {
+        while (true) {
+            var position = tail.get();
+            var index = (int) position & mask;
+            var available = sequences.get(index) - position;
+            if (available < 0)
+                return false;
+            if (available == 0 && tail.compareAndSet(position, position + 1)) {
+                elements[index] = element;
+                sequences.lazySet(index, position + 1);
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<E> consumer, int limit) {
+        var drained = 0;
+        while (drained < limit) {
+            var index = (int) head & mask;
+            if (sequences.get(index) != head + 1)
+                break;
+            var element = (E) elements[index];
+            elements[index] = null;
+            sequences.lazySet(index, head + elements.length);
+            head++;
+            drained++;
+            consumer.accept(element);
+        }
+        return drained;
+    }
+
+    public boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+}
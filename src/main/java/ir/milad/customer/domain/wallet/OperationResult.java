@@ -0,0 +1,43 @@
+package ir.milad.customer.domain.wallet;
+
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+// owned and reused by the caller, the try* operations of Wallet overwrite it instead of throwing
+@Getter
+@ToString
+@Accessors(fluent = true)
+public class OperationResult {
+    private Status status = Status.OK;
+    private long required;
+    private long available;
+
+    public boolean isSuccess() {
+        return status == Status.OK;
+    }
+
+    OperationResult succeeded() {
+        status = Status.OK;
+        required = 0;
+        available = 0;
+        return this;
+    }
+
+    OperationResult rejected(Status status, long required, long available) {
+        this.status = status;
+        this.required = required;
+        this.available = available;
+        return this;
+    }
+
+    public enum Status {
+        OK,
+        INSUFFICIENT_BUYING_POWER,
+        INSUFFICIENT_BLOCKED,
+        // the delay had enough blocked and borrowed, but a lender already spent the money it blocked for it
+        INSUFFICIENT_LENDER_BLOCKED,
+        // a charge or a deposit would take the wallet's cash past Long.MAX_VALUE
+        OVERFLOW
+    }
+}
@@ -0,0 +1,97 @@
+package ir.milad.customer.domain.wallet;
+
+// outcomes of the latest requests keyed by their wallet and primitive request id, each kept for a ttl and at most
+// capacity of them. requests are put in time order, so a ring of keys in insertion order is also their expiry order and
+// the oldest one is dropped first whether it expired or room is needed, both in O(1).
+// wallets rarely share a request id, the ones that do are chained under it.
+// not thread-safe, meant to be owned by the single thread executing the requests
+class RequestCache<V> {
+    private final LongObjectHashMap<Entry<V>> outcomes;
+    private final long[] walletIds;
+    private final long[] requestIds;
+    private final long[] putAt;
+    private final long ttlMillis;
+    // slot of the oldest request in the ring
+    private int oldest;
+    private int size;
+
+    RequestCache(int capacity, long ttlMillis) {
+        if (capacity <= 0 || ttlMillis <= 0)
+            throw new IllegalArgumentException("Capacity and ttl must be positive");
+        outcomes = new LongObjectHashMap<>(capacity);
+        walletIds = new long[capacity];
+        requestIds = new long[capacity];
+        putAt = new long[capacity];
+        this.ttlMillis = ttlMillis;
+    }
+
+    // the outcome of the wallet's request, or null when it was never put or already evicted
+    public V get(long walletId, long requestId) {
+        for (var entry = outcomes.get(requestId); entry != null; entry = entry.next)
+            if (entry.walletId == walletId)
+                return entry.outcome;
+        return null;
+    }
+
+    // false when the wallet's request is already cached, its outcome is then kept
+    public boolean put(long walletId, long requestId, V outcome, long nowMillis) {
+        if (get(walletId, requestId) != null)
+            return false;
+        if (size == requestIds.length)
+            evictOldest();
+        var slot = (oldest + size) % requestIds.length;
+        walletIds[slot] = walletId;
+        requestIds[slot] = requestId;
+        putAt[slot] = nowMillis;
+        size++;
+        outcomes.put(requestId, new Entry<>(walletId, outcome, outcomes.get(requestId)));
+        return true;
+    }
+
+    // drops every request put more than a ttl ago and returns how many were
+    public int evictExpired(long nowMillis) {
+        var evicted = 0;
+        while (size > 0 && nowMillis - putAt[oldest] >= ttlMillis) {
+            evictOldest();
+            evicted++;
+        }
+        return evicted;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void evictOldest() {
+        remove(walletIds[oldest], requestIds[oldest]);
+        oldest = (oldest + 1) % requestIds.length;
+        size--;
+    }
+
+    private void remove(long walletId, long requestId) {
+        var head = outcomes.get(requestId);
+        if (head.walletId == walletId) {
+            if (head.next == null)
+                outcomes.remove(requestId);
+            else
+                outcomes.put(requestId, head.next);
+            return;
+        }
+        var previous = head;
+        while (previous.next.walletId != walletId)
+            previous = previous.next;
+        previous.next = previous.next.next;
+    }
+
+    private static final class Entry<V> {
+        private final long walletId;
+        private final V outcome;
+        private Entry<V> next;
+
+        private Entry(long walletId, V outcome, Entry<V> next) {
+            this.walletId = walletId;
+            this.outcome = outcome;
+            this.next = next;
+        }
+    }
+}
@@ -3,96 +3,95 @@ package ir.milad.customer.domain.wallet;
 import io.vavr.collection.List;
 
 public enum SettlementDelay {
-    T_PLUS_0 {
-        @Override
-        public List<SettlementDelay> EqualAndLess() {
-            return List.of(T_PLUS_0);
-        }
-
-        @Override
-        public List<SettlementDelay> lessThan() {
-            return List.empty();
-        }
-
-        @Override
-        public Lender asLender() {
-            return Lender.of(this);
-        }
-
-        @Override
-        public Borrower asBorrower() {
-            return Borrower.of(this);
-        }
-    },
-    T_PLUS_1 {
-        @Override
-        public List<SettlementDelay> EqualAndLess() {
-            return List.of(T_PLUS_1, T_PLUS_0);
-        }
-
-        @Override
-        public List<SettlementDelay> lessThan() {
-            return List.of(T_PLUS_0);
-        }
-
-        @Override
-        public Lender asLender() {
-            return Lender.of(this);
-        }
-
-        @Override
-        public Borrower asBorrower() {
-            return Borrower.of(this);
-        }
-    },
-    T_PLUS_2 {
-        @Override
-        public List<SettlementDelay> EqualAndLess() {
-            return List.of(T_PLUS_2, T_PLUS_1, T_PLUS_0);
-        }
-
-        @Override
-        public List<SettlementDelay> lessThan() {
-            return List.of(T_PLUS_0, T_PLUS_1);
-        }
-
-        @Override
-        public Lender asLender() {
-            return Lender.of(this);
-        }
-
-        @Override
-        public Borrower asBorrower() {
-            return Borrower.of(this);
-        }
-    },
-    T_PLUS_3 {
-        @Override
-        public List<SettlementDelay> EqualAndLess() {
-            return List.of(T_PLUS_3, T_PLUS_2, T_PLUS_1, T_PLUS_0);
-        }
-
-        @Override
-        public List<SettlementDelay> lessThan() {
-            return List.of(T_PLUS_0, T_PLUS_1, T_PLUS_2);
-        }
-
-        @Override
-        public Lender asLender() {
-            return Lender.of(this);
-        }
-
-        @Override
-        public Borrower asBorrower() {
-            return Borrower.of(this);
-        }
-    };
-
-    public abstract List<SettlementDelay> EqualAndLess();
-
-    public abstract List<SettlementDelay> lessThan();
-
-    public abstract Lender asLender();
-    
-    public abstract Borrower asBorrower();
+    T_PLUS_0(0),
+    T_PLUS_1(1),
+    T_PLUS_2(2),
+    T_PLUS_3(3);
+
+    private static final SettlementDelay[] DELAYS = values();
+
+    private final int days;
+    private final Lender lender;
+    private final Borrower borrower;
+    private List<SettlementDelay> equalAndLess;
+    private List<SettlementDelay> lessThan;
+    private SettlementDelay rolled;
+
+    static {
+        var days = new int[DELAYS.length];
+        for (int i = 0; i < DELAYS.length; i++)
+            days[i] = DELAYS[i].days;
+        try {
+            checkLattice(days);
+        } catch (IllegalArgumentException e) {
+            throw new ExceptionInInitializerError(e.getMessage());
+        }
+
+        for (SettlementDelay delay : DELAYS) {
+            delay.lessThan = List.of(DELAYS).take(delay.ordinal());
+            delay.equalAndLess = List.of(DELAYS).take(delay.ordinal() + 1).reverse();
+            delay.rolled = delay.ordinal() == 0 ? delay : DELAYS[delay.ordinal() - 1];
+        }
+    }
+
+    SettlementDelay(int days) {
+        this.days = days;
+        this.lender = Lender.of(this);
+        this.borrower = Borrower.of(this);
+    }
+
+    // the settlement roll moves every delay onto the one settling a day sooner, so the delays start at T+0
+    // and each settles a day after the one before it. a market settling on T+5 declares T+4 too,
+    // otherwise its money would never age onto a lower tier
+    static void checkLattice(int... days) {
+        for (int i = 0; i < days.length; i++) {
+            if (i > 0 && days[i] <= days[i - 1])
+                throw new IllegalArgumentException("Settlement delays must be declared in ascending order of days");
+            var expected = i == 0 ? 0 : days[i - 1] + 1;
+            if (days[i] != expected)
+                throw new IllegalArgumentException(String.format("Settlement delay of %s days has no delay of %s days to roll onto", days[i], days[i] - 1));
+        }
+    }
+
+    public static int count() {
+        return DELAYS.length;
+    }
+
+    public static SettlementDelay of(int ordinal) {
+        return DELAYS[ordinal];
+    }
+
+    public static SettlementDelay ofDays(int days) {
+        for (SettlementDelay delay : DELAYS)
+            if (delay.days == days)
+                return delay;
+        throw new IllegalArgumentException(String.format("No settlement delay of %s days", days));
+    }
+
+    public int days() {
+        return days;
+    }
+
+    // the delay settling a day sooner, which this one becomes at the settlement roll. T+0 stays as it is
+    public SettlementDelay rolled() {
+        return rolled;
+    }
+
+    // this delay and every lower one, highest first
+    public List<SettlementDelay> EqualAndLess() {
+        return equalAndLess;
+    }
+
+    // every lower delay, lowest first
+    public List<SettlementDelay> lessThan() {
+        return lessThan;
+    }
+
+    public Lender asLender() {
+        return lender;
+    }
+
+    public Borrower asBorrower() {
+        return borrower;
+    }
 }
@@ -0,0 +1,96 @@
+package ir.milad.customer.domain.wallet;
+
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+// end of day roll of every wallet of a registry, registry shards are rolled in parallel and each by one thread.
+// nothing else may mutate the wallets meanwhile, a running WalletEngine rolls through WalletEngine.rollSettlement instead.
+// a wallet whose roll throws is left as it was and the roll goes on with the rest, the roll never runs twice
+// so it reports the wallets it couldn't roll instead of stopping on them
+public class SettlementRoll {
+    private final WalletRegistry registry;
+
+    private final LongAdder rolledWallets = new LongAdder();
+
+    private final AtomicInteger rolledShards = new AtomicInteger();
+
+    private final Map<Long, RuntimeException> failures = new ConcurrentHashMap<>();
+
+    private volatile long startedAt;
+
+    private volatile long finishedAt;
+
+    public SettlementRoll(WalletRegistry registry) {
+        this.registry = Objects.requireNonNull(registry);
+    }
+
+    public Progress run() {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    // a parallel stream started inside the pool forks onto that pool rather than the common one
+    public Progress run(ForkJoinPool pool) {
+        start();
+        pool.invoke(ForkJoinTask.adapt(() ->
+                IntStream.range(0, registry.shardCount()).parallel().forEach(this::rollShard)
+        ));
+        return progress();
+    }
+
+    // every wallet must be rolled exactly once a day, so an instance never runs twice
+    synchronized void start() {
+        if (startedAt != 0)
+            throw new IllegalStateException("Settlement roll already started");
+        startedAt = System.nanoTime();
+    }
+
+    void rollShard(int shard) {
+        registry.forEachInShard(shard, (customerId, wallet) -> {
+            try {
+                wallet.rollSettlement();
+                rolledWallets.increment();
+            } catch (RuntimeException e) {
+                failures.put(customerId, e);
+            }
+        });
+        if (rolledShards.incrementAndGet() == registry.shardCount())
+            finishedAt = System.nanoTime();
+    }
+
+    // safe to poll from any thread while the roll runs
+    public Progress progress() {
+        var started = startedAt;
+        var finished = finishedAt;
+        var elapsed = started == 0 ? 0 : (finished == 0 ? System.nanoTime() : finished) - started;
+        return new Progress(rolledWallets.sum(), failures.size(), rolledShards.get(), registry.shardCount(), elapsed);
+    }
+
+    // the wallets whose roll threw, by customer id, with what they threw
+    public Map<Long, RuntimeException> failures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    @Value
+    @Accessors(fluent = true)
+    public static class Progress {
+        long rolledWallets;
+        long failedWallets;
+        int rolledShards;
+        int shardCount;
+        long elapsedNanos;
+
+        public boolean isDone() {
+            return rolledShards == shardCount;
+        }
+    }
+}
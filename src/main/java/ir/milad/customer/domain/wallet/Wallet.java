@@ -1,75 +1,281 @@
 package ir.milad.customer.domain.wallet;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-
-import java.util.Map;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
 import java.util.Objects;
 
 public class Wallet {
-    private final Map<SettlementDelay, InternalWallet> delayWallets;
+    private static final ThreadLocal<Checkpoint> CHECKPOINTS = ThreadLocal.withInitial(Checkpoint::new);
+    private static final WalletMetrics METRICS = WalletMetrics.global();
+    private static final VarHandle VERSION;
+
+    private static final int DELAYS = SettlementDelay.count();
+    // layout of the state: cash and blocked of every delay, the debt of every lower delay to every higher one,
+    // which together are what a snapshot persists, then the buying power of every delay derived from the cash
+    static final int DEBTS = 2 * DELAYS;
+    static final int BUYING_POWERS = DEBTS + DELAYS * (DELAYS - 1) / 2;
+    static final int STATE_LENGTH = BUYING_POWERS + DELAYS;
+
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(Wallet.class, "version", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // every number of the wallet lives in one array, a wallet is two objects whatever the delays are
+    private final long[] state = new long[STATE_LENGTH];
 
-    private final DebtSupervisor debtSupervisor;
+    // the firm exposure the wallet counts in, shared with the rest of its registry. null counts it nowhere
+    private final FirmExposure exposure;
+
+    // seqlock over the state: odd while a mutation runs, so a reader that saw the same even version
+    // before and after copying the state copied a consistent one. mutations still need a single writer
+    private long version;
 
     public Wallet() {
-        delayWallets = Map.of(
-                SettlementDelay.T_PLUS_0, new InternalWallet(),
-                SettlementDelay.T_PLUS_1, new InternalWallet(),
-                SettlementDelay.T_PLUS_2, new InternalWallet(),
-                SettlementDelay.T_PLUS_3, new InternalWallet()
-        );
-        debtSupervisor = new DebtSupervisor();
+        this(null);
+    }
+
+    public Wallet(FirmExposure exposure) {
+        this.exposure = exposure;
     }
 
     public void block(Money toBlock, SettlementDelay highestDelay) {
         Objects.requireNonNull(toBlock);
+        blockRaw(toBlock.value(), highestDelay);
+    }
+
+    public void blockRaw(long toBlock, SettlementDelay highestDelay) {
+        var startedAt = METRICS.startedAt();
+        beginWrite();
+        try {
+            checkAndBlock(toBlock, highestDelay);
+        } finally {
+            endWrite();
+        }
+        METRICS.completed(WalletCommand.Type.BLOCK, startedAt);
+    }
+
+    private void checkAndBlock(long toBlock, SettlementDelay highestDelay) {
+        throwIfNegative(toBlock);
         throwIfNotEnoughBuyingPower(toBlock, highestDelay);
+        if (InternalWallet.cash(state, highestDelay) >= toBlock) {
+            blockInternalWallet(highestDelay, toBlock);
+            return;
+        }
+        var checkpoint = beginOperation();
+        try {
+            blockWithDebtTracking(toBlock, highestDelay);
+        } catch (RuntimeException e) {
+            rollbackOperation(checkpoint);
+            throw e;
+        }
+    }
+
+    // rejections are reported through the caller's result instead of an exception,
+    // only a negative amount, which is a programming error, still throws
+    public OperationResult tryBlock(long toBlock, SettlementDelay highestDelay, OperationResult result) {
+        throwIfNegative(toBlock);
+        if (rejectedBlock(toBlock, highestDelay, result))
+            return result;
+        blockRaw(toBlock, highestDelay);
+        return result.succeeded();
+    }
+
+    private boolean rejectedBlock(long toBlock, SettlementDelay highestDelay, OperationResult result) {
+        var buyingPower = buyingPowerRaw(highestDelay);
+        if (toBlock <= buyingPower)
+            return false;
+        METRICS.rejected(WalletCommand.Type.BLOCK, highestDelay);
+        result.rejected(OperationResult.Status.INSUFFICIENT_BUYING_POWER, toBlock, buyingPower);
+        return true;
+    }
+
+    private void blockWithDebtTracking(long toBlock, SettlementDelay highestDelay) {
+        for (int i = highestDelay.ordinal(); i >= 0; i--) {
+            var delay = SettlementDelay.of(i);
+            if (toBlock == 0)
+                return;
+            var buyingPower = InternalWallet.cash(state, delay);
+            if (buyingPower == 0)
+                continue;
+            var amount = Math.min(buyingPower, toBlock);
+            blockFromInternalWalletWithDebtTracking(delay, highestDelay, amount);
+            toBlock -= amount;
+        }
+    }
+
+    // every leg is a block and either all of them are applied or none. each delay may block at most its buying power
+    // less what the legs of lower delays block, checking that once for every delay covers the whole basket
+    public void blockAll(WalletCommand[] legs) {
+        var toBlock = blockedPerDelay(legs);
+        var shortDelay = firstShortDelay(toBlock);
+        if (shortDelay != null) {
+            METRICS.rejected(WalletCommand.Type.BLOCK, shortDelay);
+            throw new InsufficientFundsException(String.format(
+                    "Required %s for blocking up to %s but had %s", blockedUpTo(toBlock, shortDelay), shortDelay, buyingPowerRaw(shortDelay)
+            ));
+        }
+        blockEveryDelay(toBlock);
+    }
 
-        for (SettlementDelay delay : highestDelay.EqualAndLess()) {
-            if (internalWalletHasEnoughBuyingPower(delay, toBlock))
-                blockFromInternalWalletWithDebtTracking(delay.asLender(), highestDelay.asBorrower(), toBlock);
-            else if (internalWalletBuyingPowerIsNotZero(delay)) {
-                var amount = Money.of(delayWallets.get(delay).buyingPower().value());
-                toBlock = toBlock.minus(amount);
-                blockFromInternalWalletWithDebtTracking(delay.asLender(), highestDelay.asBorrower(), amount);
+    public OperationResult tryBlockAll(WalletCommand[] legs, OperationResult result) {
+        var toBlock = blockedPerDelay(legs);
+        var shortDelay = firstShortDelay(toBlock);
+        if (shortDelay != null) {
+            METRICS.rejected(WalletCommand.Type.BLOCK, shortDelay);
+            return result.rejected(OperationResult.Status.INSUFFICIENT_BUYING_POWER, blockedUpTo(toBlock, shortDelay), buyingPowerRaw(shortDelay));
+        }
+        blockEveryDelay(toBlock);
+        return result.succeeded();
+    }
+
+    // what the legs block on every delay, summed in one pass into the thread's scratch
+    private static long[] blockedPerDelay(WalletCommand[] legs) {
+        var toBlock = CHECKPOINTS.get().toBlock;
+        Arrays.fill(toBlock, 0);
+        for (WalletCommand leg : legs) {
+            if (leg.type() != WalletCommand.Type.BLOCK)
+                throw new IllegalArgumentException(String.format("Basket legs must be blocks but had %s", leg.type()));
+            var delay = leg.delay().ordinal();
+            toBlock[delay] = Math.addExact(toBlock[delay], leg.amount());
+        }
+        return toBlock;
+    }
+
+    // the lowest delay whose buying power can't cover the blocks of it and every lower delay, null when none
+    private SettlementDelay firstShortDelay(long[] toBlock) {
+        var required = 0L;
+        for (int i = 0; i < DELAYS; i++) {
+            required = Math.addExact(required, toBlock[i]);
+            if (required > state[BUYING_POWERS + i])
+                return SettlementDelay.of(i);
+        }
+        return null;
+    }
+
+    private static long blockedUpTo(long[] toBlock, SettlementDelay delay) {
+        var blocked = 0L;
+        for (int i = 0; i <= delay.ordinal(); i++)
+            blocked += toBlock[i];
+        return blocked;
+    }
+
+    // legs of a delay block together, so the cash walk runs once per delay whatever the number of legs.
+    // ascending delays leave every delay at least the buying power the check counted on
+    private void blockEveryDelay(long[] toBlock) {
+        var startedAt = METRICS.startedAt();
+        beginWrite();
+        try {
+            var checkpoint = beginOperation();
+            try {
+                for (int i = 0; i < DELAYS; i++) {
+                    var delay = SettlementDelay.of(i);
+                    if (toBlock[i] == 0)
+                        continue;
+                    if (InternalWallet.cash(state, delay) >= toBlock[i])
+                        blockInternalWallet(delay, toBlock[i]);
+                    else
+                        blockWithDebtTracking(toBlock[i], delay);
+                }
+            } catch (RuntimeException e) {
+                rollbackOperation(checkpoint);
+                throw e;
             }
+        } finally {
+            endWrite();
         }
+        METRICS.completed(WalletCommand.Type.BLOCK, startedAt);
     }
 
     public void charge(Money money) {
-        delayWallets.get(SettlementDelay.T_PLUS_0).deposit(money);
+        Objects.requireNonNull(money);
+        chargeRaw(money.value());
+    }
+
+    public void chargeRaw(long money) {
+        var startedAt = METRICS.startedAt();
+        throwIfNegative(money);
+        beginWrite();
+        try {
+            depositInternalWallet(SettlementDelay.T_PLUS_0, money);
+        } finally {
+            endWrite();
+        }
+        METRICS.completed(WalletCommand.Type.CHARGE, startedAt);
     }
 
     public void deposit(Money remaining, SettlementDelay delay) {
         Objects.requireNonNull(remaining);
+        depositRaw(remaining.value(), delay);
+    }
+
+    public void depositRaw(long remaining, SettlementDelay delay) {
+        var startedAt = METRICS.startedAt();
+        beginWrite();
+        try {
+            checkAndDeposit(remaining, delay);
+        } finally {
+            endWrite();
+        }
+        METRICS.completed(WalletCommand.Type.DEPOSIT, startedAt);
+    }
+
+    private void checkAndDeposit(long remaining, SettlementDelay delay) {
+        throwIfNegative(remaining);
+        if (!hasBorrowed(delay)) {
+            depositInternalWallet(delay, remaining);
+            return;
+        }
+        var checkpoint = beginOperation();
+        try {
+            depositWithDebtSettlement(remaining, delay);
+        } catch (RuntimeException e) {
+            rollbackOperation(checkpoint);
+            throw e;
+        }
+    }
+
+    private void depositWithDebtSettlement(long remaining, SettlementDelay delay) {
         remaining = settleDepositBorrowerDebtsAndReturnRemaining(remaining, delay);
-        delayWallets.get(delay).deposit(remaining);
+        depositInternalWallet(delay, remaining);
     }
 
-    private Money settleDepositBorrowerDebtsAndReturnRemaining(Money money, SettlementDelay delay) {
-        for (SettlementDelay lender : delay.lessThan()) {
-            Money _money = money;
-            money = borrowerToLenderPossibleDebt(delay, lender)
-                    .ifInDebt(debt -> {
-                        if (debt.isGreaterThanOrEqual(_money))
-                            return depositToLenderAndDecreaseBorrowerDebt(lender, delay, _money);
-                        depositAndClearDebt(delay, lender, debt);
-                        return _money.minus(debt);
-                    })
-                    .orElse(money);
+    private long settleDepositBorrowerDebtsAndReturnRemaining(long money, SettlementDelay delay) {
+        var settled = 0;
+        for (int i = 0; i < delay.ordinal(); i++) {
+            var lender = SettlementDelay.of(i);
+            if (money == 0)
+                break;
+            var debt = DebtSupervisor.get(state, lender, delay);
+            if (debt == 0)
+                continue;
+            settled++;
+            if (debt >= money) {
+                METRICS.cascaded(WalletCommand.Type.DEPOSIT, settled);
+                return depositToLenderAndDecreaseBorrowerDebt(lender, delay, money);
+            }
+            depositAndClearDebt(delay, lender, debt);
+            money -= debt;
         }
+        METRICS.cascaded(WalletCommand.Type.DEPOSIT, settled);
         return money;
     }
 
-    private void depositAndClearDebt(SettlementDelay delay, SettlementDelay lender, Money debt) {
-        debtSupervisor.clear(lender, delay);
-        deposit(debt, lender);
+    private void depositAndClearDebt(SettlementDelay delay, SettlementDelay lender, long debt) {
+        clearDebt(lender, delay);
+        depositWithDebtSettlement(debt, lender);
     }
 
-    private Money depositToLenderAndDecreaseBorrowerDebt(SettlementDelay lender, SettlementDelay borrower, Money _money) {
-        debtSupervisor.decrease(lender, borrower, _money);
-        delayWallets.get(lender).deposit(_money);
-        return Money.ZERO;
+    private long depositToLenderAndDecreaseBorrowerDebt(SettlementDelay lender, SettlementDelay borrower, long money) {
+        decreaseDebt(lender, borrower, money);
+        depositInternalWallet(lender, money);
+        return 0;
     }
 
     public void withdraw(Money withdraw, SettlementDelay delay) {
@@ -77,148 +283,672 @@ public class Wallet {
 
     public void spend(Money toSpend, SettlementDelay delay) {
         Objects.requireNonNull(toSpend);
+        spendRaw(toSpend.value(), delay);
+    }
+
+    public void spendRaw(long toSpend, SettlementDelay delay) {
+        var startedAt = METRICS.startedAt();
+        beginWrite();
+        try {
+            checkAndSpend(toSpend, delay);
+        } finally {
+            endWrite();
+        }
+        METRICS.completed(WalletCommand.Type.SPEND, startedAt);
+    }
+
+    private void checkAndSpend(long toSpend, SettlementDelay delay) {
+        throwIfNegative(toSpend);
         throwIfToSpendIsMoreThanWalletBlockedMoney(toSpend, delay);
+        if (InternalWallet.blocked(state, delay) >= toSpend) {
+            spendInternalWallet(delay, toSpend);
+            return;
+        }
+        var checkpoint = beginOperation();
+        try {
+            spendWithDebtSettlement(toSpend, delay);
+        } catch (RuntimeException e) {
+            rollbackOperation(checkpoint);
+            throw e;
+        }
+    }
+
+    public OperationResult trySpend(long toSpend, SettlementDelay delay, OperationResult result) {
+        throwIfNegative(toSpend);
+        if (rejectedRelease(WalletCommand.Type.SPEND, toSpend, delay, result))
+            return result;
+        try {
+            spendRaw(toSpend, delay);
+        } catch (InsufficientFundsException e) {
+            return lenderShort(WalletCommand.Type.SPEND, toSpend, delay, result);
+        }
+        return result.succeeded();
+    }
 
-        var blocked = Money.of(delayWallets.get(delay).getBlocked().value());
-        if (toSpend.isLowerThanOrEqual(blocked)) {
-            delayWallets.get(delay).spend(toSpend);
+    private void spendWithDebtSettlement(long toSpend, SettlementDelay delay) {
+        var blocked = InternalWallet.blocked(state, delay);
+        if (toSpend <= blocked) {
+            spendInternalWallet(delay, toSpend);
             return;
         }
 
-        delayWallets.get(delay).spend(blocked);
-        toSpend = toSpend.minus(blocked);
+        spendInternalWallet(delay, blocked);
+        toSpend -= blocked;
 
         spendRemainingFromLowerWallets(toSpend, delay);
     }
 
-    private void spendRemainingFromLowerWallets(Money remaining, SettlementDelay delay) {
-        for (SettlementDelay lender : delay.lessThan().reverse()) {
-            Money _toSpend = remaining;
-            remaining = borrowerToLenderPossibleDebt(delay, lender)
-                    .ifInDebt(debt -> {
-                        if (debt.isGreaterThan(_toSpend))
-                            return spendFromLenderAndDecreaseBorrowerDebt(lender, delay, _toSpend);
-
-                        spendFromLenderAndClearBorrowerDebt(lender, delay, debt);
-                        return _toSpend.minus(debt);
-                    })
-                    .orElse(remaining);
+    private void spendRemainingFromLowerWallets(long remaining, SettlementDelay delay) {
+        var settled = 0;
+        for (int i = delay.ordinal() - 1; i >= 0 && remaining > 0; i--) {
+            var lender = SettlementDelay.of(i);
+            var debt = DebtSupervisor.get(state, lender, delay);
+            if (debt == 0)
+                continue;
+            settled++;
+            if (debt > remaining) {
+                spendFromLenderAndDecreaseBorrowerDebt(lender, delay, remaining);
+                break;
+            }
+            spendFromLenderAndClearBorrowerDebt(lender, delay, debt);
+            remaining -= debt;
         }
+        METRICS.cascaded(WalletCommand.Type.SPEND, settled);
     }
 
-    private void spendFromLenderAndClearBorrowerDebt(SettlementDelay lender, SettlementDelay borrower, Money debt) {
-        debtSupervisor.clear(lender, borrower);
-        delayWallets.get(lender).spend(debt);
+    private void spendFromLenderAndClearBorrowerDebt(SettlementDelay lender, SettlementDelay borrower, long debt) {
+        clearDebt(lender, borrower);
+        spendInternalWallet(lender, debt);
     }
 
-    private Money spendFromLenderAndDecreaseBorrowerDebt(SettlementDelay lender, SettlementDelay borrower, Money _toSpend) {
-        debtSupervisor.decrease(lender, borrower, _toSpend);
-        delayWallets.get(lender).spend(_toSpend);
-        return Money.ZERO;
+    private void spendFromLenderAndDecreaseBorrowerDebt(SettlementDelay lender, SettlementDelay borrower, long toSpend) {
+        decreaseDebt(lender, borrower, toSpend);
+        spendInternalWallet(lender, toSpend);
     }
 
     public void unblock(Money toUnblock, SettlementDelay delay) {
         Objects.requireNonNull(toUnblock);
+        unblockRaw(toUnblock.value(), delay);
+    }
+
+    public void unblockRaw(long toUnblock, SettlementDelay delay) {
+        var startedAt = METRICS.startedAt();
+        beginWrite();
+        try {
+            checkAndUnblock(toUnblock, delay);
+        } finally {
+            endWrite();
+        }
+        METRICS.completed(WalletCommand.Type.UNBLOCK, startedAt);
+    }
+
+    private void checkAndUnblock(long toUnblock, SettlementDelay delay) {
+        throwIfNegative(toUnblock);
+        throwIfToUnblockIsMoreThanWalletBlockedMoney(toUnblock, delay);
+        if (!hasBorrowed(delay)) {
+            unblockInternalWallet(delay, toUnblock);
+            return;
+        }
+        var checkpoint = beginOperation();
+        try {
+            unblockWithDebtSettlement(toUnblock, delay);
+        } catch (RuntimeException e) {
+            rollbackOperation(checkpoint);
+            throw e;
+        }
+    }
+
+    public OperationResult tryUnblock(long toUnblock, SettlementDelay delay, OperationResult result) {
+        throwIfNegative(toUnblock);
+        if (rejectedRelease(WalletCommand.Type.UNBLOCK, toUnblock, delay, result))
+            return result;
+        try {
+            unblockRaw(toUnblock, delay);
+        } catch (InsufficientFundsException e) {
+            return lenderShort(WalletCommand.Type.UNBLOCK, toUnblock, delay, result);
+        }
+        return result.succeeded();
+    }
+
+    private boolean rejectedRelease(WalletCommand.Type operation, long amount, SettlementDelay delay, OperationResult result) {
+        var releasable = releasableBlocked(delay);
+        if (amount <= releasable)
+            return false;
+        METRICS.rejected(operation, delay);
+        result.rejected(OperationResult.Status.INSUFFICIENT_BLOCKED, amount, releasable);
+        return true;
+    }
+
+    // the check above counts the debts of the delay, not whether each lender still holds the money it blocked for them.
+    // only the cascade finds that out, rare enough to pay for its exception, and it already rolled the wallet back
+    private OperationResult lenderShort(WalletCommand.Type operation, long required, SettlementDelay delay, OperationResult result) {
+        METRICS.rejected(operation, delay);
+        return result.rejected(OperationResult.Status.INSUFFICIENT_LENDER_BLOCKED, required, releasableBlocked(delay));
+    }
+
+    private void unblockWithDebtSettlement(long toUnblock, SettlementDelay delay) {
         toUnblock = settleUnblockBorrowerDebtsAndReturnRemaining(toUnblock, delay);
-        delayWallets.get(delay).unblock(toUnblock);
+        unblockInternalWallet(delay, toUnblock);
     }
 
-    private Money settleUnblockBorrowerDebtsAndReturnRemaining(Money money, SettlementDelay delay) {
-        for (SettlementDelay lender : delay.lessThan()) {
-            Money _money = money;
-            money = borrowerToLenderPossibleDebt(delay, lender)
-                    .ifInDebt(debt -> {
-                        if (debt.isGreaterThan(_money))
-                            return unblockFromLenderAndDecreaseBorrowerDebt(lender, delay, _money);
+    private long settleUnblockBorrowerDebtsAndReturnRemaining(long money, SettlementDelay delay) {
+        var settled = 0;
+        for (int i = 0; i < delay.ordinal(); i++) {
+            var lender = SettlementDelay.of(i);
+            if (money == 0)
+                break;
+            var debt = DebtSupervisor.get(state, lender, delay);
+            if (debt == 0)
+                continue;
+            settled++;
+            if (debt > money) {
+                METRICS.cascaded(WalletCommand.Type.UNBLOCK, settled);
+                return unblockFromLenderAndDecreaseBorrowerDebt(lender, delay, money);
+            }
 
-                        unblock(debt, lender);
-                        return _money.minus(debt);
-                    })
-                    .orElse(money);
+            unblockAndClearDebt(delay, lender, debt);
+            money -= debt;
         }
+        METRICS.cascaded(WalletCommand.Type.UNBLOCK, settled);
         return money;
     }
 
-    private Money unblockFromLenderAndDecreaseBorrowerDebt(SettlementDelay lender, SettlementDelay borrower, Money _toUnblock) {
-        delayWallets.get(lender).unblock(_toUnblock);
-        debtSupervisor.decrease(lender, borrower, _toUnblock);
-        return Money.ZERO;
+    private void unblockAndClearDebt(SettlementDelay delay, SettlementDelay lender, long debt) {
+        clearDebt(lender, delay);
+        unblockWithDebtSettlement(debt, lender);
+    }
+
+    private long unblockFromLenderAndDecreaseBorrowerDebt(SettlementDelay lender, SettlementDelay borrower, long toUnblock) {
+        unblockInternalWallet(lender, toUnblock);
+        decreaseDebt(lender, borrower, toUnblock);
+        return 0;
+    }
+
+    public void transfer(Wallet to, Money amount, SettlementDelay fromDelay, SettlementDelay toDelay) {
+        Objects.requireNonNull(amount);
+        transferRaw(to, amount.value(), fromDelay, toDelay);
+    }
+
+    // only blocked money moves: it leaves fromDelay of this wallet exactly like a spend, through its debts when its own
+    // isn't enough, so free cash must be blocked first. it reaches the other wallet's toDelay exactly like a deposit,
+    // settling that delay's debts first. a deposit only fails on overflow, the spend is then taken back so a transfer
+    // never stops halfway. both wallets must be owned by the caller, ConcurrentWallet locks them for it
+    public void transferRaw(Wallet to, long amount, SettlementDelay fromDelay, SettlementDelay toDelay) {
+        Objects.requireNonNull(to);
+        Objects.requireNonNull(toDelay);
+        var checkpoint = beginTransfer();
+        spendRaw(amount, fromDelay);
+        depositOrRollback(to, amount, toDelay, checkpoint);
+    }
+
+    public OperationResult tryTransfer(Wallet to, long amount, SettlementDelay fromDelay, SettlementDelay toDelay, OperationResult result) {
+        Objects.requireNonNull(to);
+        Objects.requireNonNull(toDelay);
+        var checkpoint = beginTransfer();
+        if (trySpend(amount, fromDelay, result).isSuccess())
+            depositOrRollback(to, amount, toDelay, checkpoint);
+        return result;
+    }
+
+    // the spend and the deposit each use the operation checkpoint, the source's state before both is kept apart
+    private Checkpoint beginTransfer() {
+        var checkpoint = CHECKPOINTS.get();
+        System.arraycopy(state, 0, checkpoint.transferSource, 0, STATE_LENGTH);
+        return checkpoint;
+    }
+
+    private void depositOrRollback(Wallet to, long amount, SettlementDelay toDelay, Checkpoint checkpoint) {
+        try {
+            to.depositRaw(amount, toDelay);
+        } catch (RuntimeException e) {
+            beginWrite();
+            try {
+                if (exposure != null)
+                    exposure.moved(state, checkpoint.transferSource);
+                System.arraycopy(checkpoint.transferSource, 0, state, 0, STATE_LENGTH);
+            } finally {
+                endWrite();
+            }
+            throw e;
+        }
+    }
+
+    // at settlement cut-off every delay moves one tier down: T+1 money joins T+0, T+2 becomes T+1 and so on,
+    // debts follow their lender and borrower and a debt whose both ends land on T+0 is gone.
+    // the firm exposure takes the whole roll at once from its checkpoint
+    public void rollSettlement() {
+        if (DELAYS < 2)
+            return;
+        var checkpoint = beginOperation();
+        beginWrite();
+        try {
+            rollInternalWallets();
+            rollDebts();
+            rebuildBuyingPowers();
+            if (exposure != null)
+                exposure.moved(checkpoint.state, state);
+        } catch (RuntimeException e) {
+            checkpoint.restore(this);
+            throw e;
+        } finally {
+            endWrite();
+        }
+    }
+
+    // every tier moves onto SettlementDelay.rolled, which is never higher than the tier itself,
+    // so in ascending order whatever a tier moves onto was already moved out of itself
+    private void rollInternalWallets() {
+        for (int i = 1; i < DELAYS; i++) {
+            var delay = SettlementDelay.of(i);
+            var rolled = delay.rolled();
+            if (rolled == delay)
+                continue;
+            InternalWallet.restore(state, rolled,
+                    Math.addExact(InternalWallet.cash(state, rolled), InternalWallet.cash(state, delay)),
+                    Math.addExact(InternalWallet.blocked(state, rolled), InternalWallet.blocked(state, delay))
+            );
+            InternalWallet.restore(state, delay, 0, 0);
+        }
+    }
+
+    // a debt follows its lender and borrower onto their rolled tiers and is dropped once they are the same tier.
+    // borrowers then lenders ascend, so whatever a debt moves onto was already moved out of itself
+    private void rollDebts() {
+        for (int borrower = 1; borrower < DELAYS; borrower++) {
+            for (int lender = 0; lender < borrower; lender++) {
+                var from = SettlementDelay.of(lender);
+                var to = SettlementDelay.of(borrower);
+                var debt = DebtSupervisor.get(state, from, to);
+                if (debt == 0 || from.rolled() == from && to.rolled() == to)
+                    continue;
+                DebtSupervisor.clear(state, from, to);
+                if (from.rolled() != to.rolled())
+                    DebtSupervisor.increase(state, from.rolled(), to.rolled(), debt);
+            }
+        }
+    }
+
+    // applies the commands in order, a rejected command doesn't stop the ones after it;
+    // results[i] gets the outcome of commands[i] and the number of successful commands is returned.
+    // the whole batch is one write section and records its metrics once, readers see all of it or none
+    public int apply(WalletCommand[] commands, OperationResult[] results) {
+        if (results.length < commands.length)
+            throw new IllegalArgumentException(String.format("Required %s results but had %s", commands.length, results.length));
+        var startedAt = METRICS.startedAt();
+        var completed = CHECKPOINTS.get().completed;
+        Arrays.fill(completed, 0);
+        var succeeded = 0;
+        beginWrite();
+        try {
+            for (int i = 0; i < commands.length; i++) {
+                if (applyInBatch(commands[i], results[i]).isSuccess()) {
+                    completed[commands[i].type().ordinal()]++;
+                    succeeded++;
+                }
+            }
+        } finally {
+            endWrite();
+        }
+        METRICS.completed(completed, commands.length, startedAt);
+        return succeeded;
+    }
+
+    // the checks of the try operations without their own write section and metrics. a charge or a deposit
+    // grows the highest buying power by its amount whatever debts it settles, so that bounds its overflow
+    private OperationResult applyInBatch(WalletCommand command, OperationResult result) {
+        var amount = command.amount();
+        var delay = command.delay();
+        switch (command.type()) {
+            case CHARGE, DEPOSIT -> {
+                var headroom = Long.MAX_VALUE - state[STATE_LENGTH - 1];
+                if (amount > headroom) {
+                    METRICS.rejected(command.type(), delay);
+                    return result.rejected(OperationResult.Status.OVERFLOW, amount, headroom);
+                }
+                checkAndDeposit(amount, delay);
+            }
+            case BLOCK -> {
+                if (rejectedBlock(amount, delay, result))
+                    return result;
+                checkAndBlock(amount, delay);
+            }
+            case SPEND -> {
+                if (rejectedRelease(WalletCommand.Type.SPEND, amount, delay, result))
+                    return result;
+                try {
+                    checkAndSpend(amount, delay);
+                } catch (InsufficientFundsException e) {
+                    return lenderShort(WalletCommand.Type.SPEND, amount, delay, result);
+                }
+            }
+            case UNBLOCK -> {
+                if (rejectedRelease(WalletCommand.Type.UNBLOCK, amount, delay, result))
+                    return result;
+                try {
+                    checkAndUnblock(amount, delay);
+                } catch (InsufficientFundsException e) {
+                    return lenderShort(WalletCommand.Type.UNBLOCK, amount, delay, result);
+                }
+            }
+        }
+        return result.succeeded();
+    }
+
+    // copies every tier and debt into the caller's view without blocking the writer, which may run on another thread;
+    // a copy raced by a mutation is retried, so a reader spins only while mutations keep landing on the wallet
+    public WalletView read(WalletView view) {
+        while (true) {
+            var before = (long) VERSION.getAcquire(this);
+            if ((before & 1) == 0) {
+                System.arraycopy(state, 0, view.state(), 0, STATE_LENGTH);
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getOpaque(this) == before)
+                    return view.version(before);
+            }
+            Thread.onSpinWait();
+        }
     }
 
     public Money buyingPower(SettlementDelay delay) {
-        return Money.of(
-                (Long) delay
-                        .EqualAndLess()
-                        .map(delayWallets::get)
-                        .map(internalWallet -> internalWallet.buyingPower().value())
-                        .sum()
-        );
+        return Money.of(buyingPowerRaw(delay));
     }
 
-    private boolean internalWalletHasEnoughBuyingPower(SettlementDelay delay, Money toBlock) {
-        return delayWallets.get(delay).buyingPower().isGreaterThan(toBlock);
+    public long buyingPowerRaw(SettlementDelay delay) {
+        return state[BUYING_POWERS + delay.ordinal()];
     }
 
-    private void throwIfNotEnoughBuyingPower(Money block, SettlementDelay delay) {
-        var buyingPower = buyingPower(delay);
-        if (block.isGreaterThan(buyingPower))
-            throw new InsufficientFundsException(String.format("Required %s for blocking but had %s", block.value(), buyingPower.value()));
+    // every step below changes the state and the firm exposure together
+    private void depositInternalWallet(SettlementDelay delay, long amount) {
+        // cash is never negative, so the highest buying power is the largest sum a deposit grows and if it fits all do
+        Math.addExact(state[STATE_LENGTH - 1], amount);
+        InternalWallet.deposit(state, delay, amount);
+        addToBuyingPowers(delay, amount);
+        if (exposure != null)
+            exposure.cashChanged(delay, amount);
     }
 
-    private void blockFromInternalWalletWithDebtTracking(Lender lender, Borrower borrower, Money debt) {
-        delayWallets.get(lender.value()).block(debt);
-        if (borrower.value() != lender.value())
-            debtSupervisor.increase(lender, borrower, debt);
+    private void blockInternalWallet(SettlementDelay delay, long amount) {
+        InternalWallet.block(state, delay, amount);
+        addToBuyingPowers(delay, -amount);
+        if (exposure != null)
+            exposure.blockChanged(delay, amount);
     }
 
-    private boolean internalWalletBuyingPowerIsNotZero(SettlementDelay delay) {
-        return delayWallets.get(delay).buyingPower().isGreaterThan(Money.ZERO);
+    private void unblockInternalWallet(SettlementDelay delay, long amount) {
+        InternalWallet.unblock(state, delay, amount);
+        addToBuyingPowers(delay, amount);
+        if (exposure != null)
+            exposure.blockChanged(delay, -amount);
     }
 
-    private void throwIfToSpendIsMoreThanWalletBlockedMoney(Money toSpend, SettlementDelay delay) {
-        var blocked = Money.of(delayWallets.get(delay).getBlocked().value());
-        var totalPossibleToSpend = delay
-                .lessThan()
-                .map(d -> debtSupervisor.get(d.asLender(), delay.asBorrower()))
-                .fold(blocked, (acc, money) -> acc.plus(money == null ? Money.ZERO : money));
-        if (toSpend.isGreaterThan(totalPossibleToSpend))
-            throw new InsufficientFundsException(String.format("Required %s for spending but have only %s", toSpend.value(), totalPossibleToSpend.value()));
+    private void spendInternalWallet(SettlementDelay delay, long amount) {
+        InternalWallet.spend(state, delay, amount);
+        if (exposure != null)
+            exposure.blockedChanged(delay, -amount);
     }
 
-    private OptionalDebt borrowerToLenderPossibleDebt(SettlementDelay walletDelay, SettlementDelay lender) {
-        return new OptionalDebt(debtSupervisor.get(lender.asLender(), walletDelay.asBorrower()));
+    private void increaseDebt(SettlementDelay lender, SettlementDelay borrower, long amount) {
+        DebtSupervisor.increase(state, lender, borrower, amount);
+        if (exposure != null)
+            exposure.debtChanged(lender, borrower, amount);
     }
 
-    static class DebtSupervisor {
-        private final Table<Lender, Borrower, Money> higherWalletsToLowerWalletsDebt;
+    private void decreaseDebt(SettlementDelay lender, SettlementDelay borrower, long amount) {
+        DebtSupervisor.decrease(state, lender, borrower, amount);
+        if (exposure != null)
+            exposure.debtChanged(lender, borrower, -amount);
+    }
+
+    private void clearDebt(SettlementDelay lender, SettlementDelay borrower) {
+        var debt = DebtSupervisor.get(state, lender, borrower);
+        DebtSupervisor.clear(state, lender, borrower);
+        if (exposure != null)
+            exposure.debtChanged(lender, borrower, -debt);
+    }
+
+    // buying power of a delay is the cash of its own and every lower wallet,
+    // so a cash change on one wallet moves the buying power of it and every higher delay
+    private void addToBuyingPowers(SettlementDelay delay, long cashChange) {
+        for (int i = BUYING_POWERS + delay.ordinal(); i < STATE_LENGTH; i++)
+            state[i] += cashChange;
+    }
+
+    private boolean hasBorrowed(SettlementDelay borrower) {
+        var debts = DebtSupervisor.debtsOf(borrower);
+        for (int i = debts; i < debts + borrower.ordinal(); i++)
+            if (state[i] != 0)
+                return true;
+        return false;
+    }
+
+    // the state must not be written before readers can see the odd version
+    private void beginWrite() {
+        VERSION.setOpaque(this, version + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        VERSION.setRelease(this, version + 1);
+    }
+
+    // operations touching a single internal wallet are checked by it before anything changes,
+    // the ones walking debts start from a checkpoint and go back to it if a later step fails
+    private Checkpoint beginOperation() {
+        var checkpoint = CHECKPOINTS.get();
+        checkpoint.take(this);
+        return checkpoint;
+    }
+
+    // the steps taken so far already reached the firm exposure, going back takes them out again
+    private void rollbackOperation(Checkpoint checkpoint) {
+        if (exposure != null)
+            exposure.moved(state, checkpoint.state);
+        checkpoint.restore(this);
+    }
+
+    private void rebuildBuyingPowers() {
+        var buyingPower = 0L;
+        for (int i = 0; i < DELAYS; i++) {
+            buyingPower += InternalWallet.cash(state, SettlementDelay.of(i));
+            state[BUYING_POWERS + i] = buyingPower;
+        }
+    }
+
+    private void throwIfNotEnoughBuyingPower(long block, SettlementDelay delay) {
+        var buyingPower = buyingPowerRaw(delay);
+        if (block > buyingPower) {
+            METRICS.rejected(WalletCommand.Type.BLOCK, delay);
+            throw new InsufficientFundsException(String.format("Required %s for blocking but had %s", block, buyingPower));
+        }
+    }
+
+    private void blockFromInternalWalletWithDebtTracking(SettlementDelay lender, SettlementDelay borrower, long debt) {
+        blockInternalWallet(lender, debt);
+        if (borrower != lender)
+            increaseDebt(lender, borrower, debt);
+    }
+
+    private void throwIfToSpendIsMoreThanWalletBlockedMoney(long toSpend, SettlementDelay delay) {
+        var totalPossibleToSpend = releasableBlocked(delay);
+        if (toSpend > totalPossibleToSpend) {
+            METRICS.rejected(WalletCommand.Type.SPEND, delay);
+            throw new InsufficientFundsException(String.format("Required %s for spending but have only %s", toSpend, totalPossibleToSpend));
+        }
+    }
 
+    private void throwIfToUnblockIsMoreThanWalletBlockedMoney(long toUnblock, SettlementDelay delay) {
+        var totalPossibleToUnblock = releasableBlocked(delay);
+        if (toUnblock > totalPossibleToUnblock) {
+            METRICS.rejected(WalletCommand.Type.UNBLOCK, delay);
+            throw new InsufficientFundsException(String.format("Required %s for unblock but have only %s", toUnblock, totalPossibleToUnblock));
+        }
+    }
+
+    // what a delay can spend or unblock: its own blocked money and whatever it borrowed from lower delays
+    long releasableBlocked(SettlementDelay delay) {
+        var releasable = InternalWallet.blocked(state, delay);
+        var debts = DebtSupervisor.debtsOf(delay);
+        for (int i = debts; i < debts + delay.ordinal(); i++)
+            releasable += state[i];
+        return releasable;
+    }
+
+    // cash and blocked of every delay followed by the debt of every lower delay to every higher one,
+    // the leading part of the state
+    static int stateSize() {
+        return Long.BYTES * BUYING_POWERS;
+    }
+
+    void writeState(ByteBuffer target) {
+        for (int i = 0; i < BUYING_POWERS; i++)
+            target.putLong(state[i]);
+    }
+
+    void readState(ByteBuffer source) {
+        var previous = beginOperation();
+        beginWrite();
+        try {
+            for (int i = 0; i < DELAYS; i++)
+                InternalWallet.restore(state, SettlementDelay.of(i), source.getLong(), source.getLong());
+            for (int i = DEBTS; i < BUYING_POWERS; i++)
+                state[i] = source.getLong();
+            rebuildBuyingPowers();
+            if (exposure != null)
+                exposure.moved(previous.state, state);
+        } finally {
+            endWrite();
+        }
+    }
+
+    // the whole state, derived buying powers included, for stores keeping wallets outside the heap.
+    // loading doesn't reach the firm exposure, the store counts its wallets itself
+    void loadState(LongBuffer source, int index) {
+        beginWrite();
+        try {
+            source.get(index, state, 0, STATE_LENGTH);
+        } finally {
+            endWrite();
+        }
+    }
+
+    void storeState(LongBuffer target, int index) {
+        target.put(index, state, 0, STATE_LENGTH);
+    }
+
+    // read-only views over the state, allocated per call so the wallet doesn't carry them
+    InternalWallet internalWallet(SettlementDelay delay) {
+        return new InternalWallet(state, delay);
+    }
+
+    DebtSupervisor debtSupervisor() {
+        return new DebtSupervisor(state);
+    }
+
+    private static void throwIfNegative(long amount) {
+        if (amount < 0)
+            throw new IllegalArgumentException("Money can't have negative value");
+    }
+
+    // copy of the state a multi-step operation starts from, a handful of longs so taking it up front
+    // is cheaper than recording every step of a cascade
+    private static final class Checkpoint {
+        private final long[] state = new long[STATE_LENGTH];
+        // what a basket blocks on every delay, kept here so blocking one allocates nothing
+        private final long[] toBlock = new long[DELAYS];
+        // the source of a transfer before its spend, which takes the checkpoint above
+        private final long[] transferSource = new long[STATE_LENGTH];
+        // what a batch completed of every operation, counted here so its metrics are recorded once
+        private final long[] completed = new long[WalletCommand.Type.values().length];
+
+        void take(Wallet wallet) {
+            System.arraycopy(wallet.state, 0, state, 0, STATE_LENGTH);
+        }
+
+        void restore(Wallet wallet) {
+            System.arraycopy(state, 0, wallet.state, 0, STATE_LENGTH);
+        }
+    }
+
+    // debts are a triangle of the wallet state, borrowers ascending and the lenders of each ascending,
+    // as only a lower delay lends to a higher one. an instance is a view over a state,
+    // the wallet itself goes through the static methods so it doesn't carry one.
+    // one entry per lender and borrower is already the least there is: debts never offset, and netting a chain
+    // lender -> middle -> borrower into a direct debt changes whose blocked money later spends and unblocks settle
+    static class DebtSupervisor {
+        private final long[] state;
 
         public DebtSupervisor() {
-            higherWalletsToLowerWalletsDebt = HashBasedTable.create(4, 4);
+            this(new long[STATE_LENGTH]);
         }
 
-        public void increase(Lender lender, Borrower borrower, Money amount) {
-            higherWalletsToLowerWalletsDebt.put(lender, borrower, get(lender, borrower).plus(amount));
+        DebtSupervisor(long[] state) {
+            this.state = state;
+        }
+
+        public void increase(SettlementDelay lender, SettlementDelay borrower, long amount) {
+            increase(state, lender, borrower, amount);
         }
 
         public void clear(SettlementDelay lender, SettlementDelay borrower) {
-            higherWalletsToLowerWalletsDebt.put(lender.asLender(), borrower.asBorrower(), Money.ZERO);
+            clear(state, lender, borrower);
         }
 
-        public void decrease(SettlementDelay lender, SettlementDelay borrower, Money amount) {
-            // TODO: 11/23/2022 Can check if amount is not greater than debt
-            higherWalletsToLowerWalletsDebt.put(
-                    lender.asLender(),
-                    borrower.asBorrower(),
-                    get(lender.asLender(), borrower.asBorrower()).minus(amount)
-            );
+        public void decrease(SettlementDelay lender, SettlementDelay borrower, long amount) {
+            decrease(state, lender, borrower, amount);
+        }
+
+        public long get(SettlementDelay lender, SettlementDelay borrower) {
+            return get(state, lender, borrower);
         }
 
         public Money get(Lender lender, Borrower borrower) {
-            var debt = higherWalletsToLowerWalletsDebt.get(lender, borrower);
-            if (debt == null)
-                debt = Money.ZERO;
-            return debt;
+            return Money.of(get(lender.value(), borrower.value()));
+        }
+
+        public int count() {
+            return count(state);
+        }
+
+        static void increase(long[] state, SettlementDelay lender, SettlementDelay borrower, long amount) {
+            var index = index(lender, borrower);
+            state[index] = Math.addExact(state[index], amount);
+        }
+
+        static void clear(long[] state, SettlementDelay lender, SettlementDelay borrower) {
+            state[index(lender, borrower)] = 0;
+        }
+
+        static void decrease(long[] state, SettlementDelay lender, SettlementDelay borrower, long amount) {
+            var index = index(lender, borrower);
+            var debt = state[index];
+            if (amount > debt)
+                throw new IllegalStateException(String.format("Can't decrease %s debt to %s by %s, debt is %s", borrower, lender, amount, debt));
+            state[index] = debt - amount;
+        }
+
+        static long get(long[] state, SettlementDelay lender, SettlementDelay borrower) {
+            return state[index(lender, borrower)];
+        }
+
+        // debts of the wallet that aren't settled
+        static int count(long[] state) {
+            var count = 0;
+            for (int i = DEBTS; i < BUYING_POWERS; i++)
+                if (state[i] != 0)
+                    count++;
+            return count;
+        }
+
+        // the borrower's debt to T+0, its debts to the following lenders up to the delay below it come next
+        static int debtsOf(SettlementDelay borrower) {
+            var b = borrower.ordinal();
+            return DEBTS + b * (b - 1) / 2;
+        }
+
+        static int index(SettlementDelay lender, SettlementDelay borrower) {
+            if (lender.ordinal() >= borrower.ordinal())
+                throw new IllegalArgumentException(String.format("%s can't lend to %s", lender, borrower));
+            return debtsOf(borrower) + lender.ordinal();
         }
     }
 }
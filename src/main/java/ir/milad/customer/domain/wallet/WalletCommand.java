@@ -0,0 +1,80 @@
+package ir.milad.customer.domain.wallet;
+
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+import java.util.Objects;
+
+@Value
+@Accessors(fluent = true)
+public class WalletCommand {
+    Type type;
+    long amount;
+    SettlementDelay delay;
+
+    private WalletCommand(Type type, long amount, SettlementDelay delay) {
+        if (amount < 0)
+            throw new IllegalArgumentException("Money can't have negative value");
+        this.type = Objects.requireNonNull(type);
+        this.amount = amount;
+        this.delay = Objects.requireNonNull(delay);
+    }
+
+    public static WalletCommand charge(long amount) {
+        return new WalletCommand(Type.CHARGE, amount, SettlementDelay.T_PLUS_0);
+    }
+
+    public static WalletCommand deposit(long amount, SettlementDelay delay) {
+        return new WalletCommand(Type.DEPOSIT, amount, delay);
+    }
+
+    public static WalletCommand block(long amount, SettlementDelay delay) {
+        return new WalletCommand(Type.BLOCK, amount, delay);
+    }
+
+    public static WalletCommand spend(long amount, SettlementDelay delay) {
+        return new WalletCommand(Type.SPEND, amount, delay);
+    }
+
+    public static WalletCommand unblock(long amount, SettlementDelay delay) {
+        return new WalletCommand(Type.UNBLOCK, amount, delay);
+    }
+
+    static WalletCommand of(Type type, long amount, SettlementDelay delay) {
+        return new WalletCommand(type, amount, delay);
+    }
+
+    public void applyTo(Wallet wallet) {
+        switch (type) {
+            case CHARGE -> wallet.chargeRaw(amount);
+            case DEPOSIT -> wallet.depositRaw(amount, delay);
+            case BLOCK -> wallet.blockRaw(amount, delay);
+            case SPEND -> wallet.spendRaw(amount, delay);
+            case UNBLOCK -> wallet.unblockRaw(amount, delay);
+        }
+    }
+
+    public OperationResult tryApplyTo(Wallet wallet, OperationResult result) {
+        return switch (type) {
+            case CHARGE -> {
+                wallet.chargeRaw(amount);
+                yield result.succeeded();
+            }
+            case DEPOSIT -> {
+                wallet.depositRaw(amount, delay);
+                yield result.succeeded();
+            }
+            case BLOCK -> wallet.tryBlock(amount, delay, result);
+            case SPEND -> wallet.trySpend(amount, delay, result);
+            case UNBLOCK -> wallet.tryUnblock(amount, delay, result);
+        };
+    }
+
+    public enum Type {
+        CHARGE,
+        DEPOSIT,
+        BLOCK,
+        SPEND,
+        UNBLOCK
+    }
+}
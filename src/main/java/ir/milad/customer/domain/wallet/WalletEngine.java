@@ -0,0 +1,592 @@
+package ir.milad.customer.domain.wallet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+// every registry shard is owned by exactly one thread which is the only one mutating its wallets,
+// so commands of a customer are serialized without any lock on the wallet itself
+public class WalletEngine implements AutoCloseable {
+    private static final int IDLE_SPINS = 1_000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long NO_HOLD = -1;
+    private static final long NO_REQUEST = -1;
+    private static final Pattern SHARD_FILE = Pattern.compile("(?:journal-(\\d+)\\.log|snapshot-(\\d+)\\.bin)");
+
+    private final WalletRegistry registry;
+
+    private final WalletEngineConfig config;
+
+    private final Shard[] shards;
+
+    private final BalancePublisher balanceChanges;
+
+    private volatile boolean running;
+
+    // shard threads run once, a closed engine can't be started again
+    private boolean closed;
+
+    public WalletEngine(WalletRegistry registry) {
+        this(registry, WalletEngineConfig.defaults());
+    }
+
+    public WalletEngine(WalletRegistry registry, int ringCapacity) {
+        this(registry, WalletEngineConfig.builder().ringCapacity(ringCapacity).build());
+    }
+
+    public WalletEngine(WalletRegistry registry, WalletEngineConfig config) {
+        this.registry = Objects.requireNonNull(registry);
+        this.config = Objects.requireNonNull(config);
+        this.shards = new Shard[registry.shardCount()];
+        this.balanceChanges = new BalancePublisher(registry, config.balanceChangeExecutor());
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = new Shard(i);
+    }
+
+    // recovers every shard from its journal in parallel and returns once all of them accept commands
+    public synchronized void start() throws IOException, InterruptedException {
+        if (running)
+            return;
+        if (closed)
+            throw new IllegalStateException("Wallet engine can't be started again once closed");
+        throwIfJournalsBelongToMoreShards();
+        running = true;
+        for (Shard shard : shards)
+            shard.thread.start();
+        for (Shard shard : shards)
+            shard.ready.await();
+        for (Shard shard : shards) {
+            if (shard.recoveryFailure != null) {
+                close();
+                throw new IOException("Wallet engine recovery failed", shard.recoveryFailure);
+            }
+        }
+    }
+
+    public CompletableFuture<Money> submit(long walletId, WalletCommand command) {
+        Objects.requireNonNull(command);
+        return submit(new Envelope(walletId, command, NO_REQUEST, NO_HOLD, 0, new CompletableFuture<>()));
+    }
+
+    // idempotent submit: a retry with the same request id gets the outcome of the first execution,
+    // success or failure, without applying the command again. request ids must be non-negative and unique per wallet,
+    // other wallets may use the same ids. they are remembered by the wallet's shard for a while only,
+    // see WalletEngineConfig, and not across a restart
+    public CompletableFuture<Money> submit(long walletId, long requestId, WalletCommand command) {
+        Objects.requireNonNull(command);
+        if (requestId < 0)
+            throw new IllegalArgumentException(String.format("Request id can't be negative but was %s", requestId));
+        return submit(new Envelope(walletId, command, requestId, NO_HOLD, 0, new CompletableFuture<>()));
+    }
+
+    // blocks the amount under a hold id that the shard unblocks by itself once ttl elapsed,
+    // unless it was spent or released before that; hold ids must be unique and non-negative.
+    // with a journal directory holds survive a restart, one whose deadline passed meanwhile is released right after
+    public CompletableFuture<Money> hold(long walletId, long holdId, long amount, SettlementDelay delay, Duration ttl) {
+        throwIfInvalidHoldId(holdId);
+        throwIfInvalidTtl(ttl);
+        var deadline = System.currentTimeMillis() + ttl.toMillis();
+        return submit(new Envelope(walletId, WalletCommand.block(amount, delay), NO_REQUEST, holdId, deadline, new CompletableFuture<>()));
+    }
+
+    // spends part of a pending hold, the delay is the one the hold was blocked at
+    public CompletableFuture<Money> spendHold(long walletId, long holdId, long amount) {
+        throwIfInvalidHoldId(holdId);
+        return submit(new Envelope(walletId, WalletCommand.spend(amount, SettlementDelay.T_PLUS_0), NO_REQUEST, holdId, 0, new CompletableFuture<>()));
+    }
+
+    // unblocks whatever is left of a pending hold
+    public CompletableFuture<Money> releaseHold(long walletId, long holdId) {
+        throwIfInvalidHoldId(holdId);
+        return submit(new Envelope(walletId, WalletCommand.unblock(0, SettlementDelay.T_PLUS_0), NO_REQUEST, holdId, 0, new CompletableFuture<>()));
+    }
+
+    // close waits for every submit that saw the engine running before draining the rings,
+    // so an envelope is either rejected here or offered before its ring is drained, never left behind
+    private CompletableFuture<Money> submit(Envelope envelope) {
+        var shard = shards[registry.shardOf(envelope.walletId())];
+        shard.submitting.incrementAndGet();
+        try {
+            throwIfNotRunning();
+            while (!shard.commands.offer(envelope)) {
+                throwIfNotRunning();
+                Thread.onSpinWait();
+            }
+        } finally {
+            shard.submitting.decrementAndGet();
+        }
+        return envelope.future();
+    }
+
+    // every shard writes its snapshot between two batches, the future completes once all of them are durable
+    public CompletableFuture<Void> snapshot() {
+        throwIfNotRunning();
+        if (config.journalDirectory() == null)
+            throw new IllegalStateException("Snapshots need a journal directory");
+        var snapshots = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; i++)
+            snapshots[i] = shards[i].requestSnapshot();
+        return CompletableFuture.allOf(snapshots);
+    }
+
+    // every shard rolls its own wallets and holds between two batches and, with a journal, snapshots right after,
+    // so recovery never replays commands of the next day onto wallets of the day before.
+    // commands submitted concurrently may land on either side of the roll
+    public CompletableFuture<Void> rollSettlement(SettlementRoll roll) {
+        Objects.requireNonNull(roll);
+        throwIfNotRunning();
+        roll.start();
+        var rolls = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; i++)
+            rolls[i] = shards[i].requestRoll(roll);
+        return CompletableFuture.allOf(rolls);
+    }
+
+    // every wallet a command, an expired hold or a settlement roll changed, coalesced per subscriber.
+    // events carry the wallet's in-memory state which may be ahead of the journal's group commit
+    // and complete once the engine is closed
+    public Flow.Publisher<BalanceChange> balanceChanges() {
+        return balanceChanges;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    // waits for every shard to stop even when interrupted, the interrupt is kept on the calling thread
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (!running)
+            return;
+        running = false;
+        for (Shard shard : shards) {
+            while (shard.submitting.get() != 0)
+                Thread.onSpinWait();
+            LockSupport.unpark(shard.thread);
+            joinUninterruptibly(shard.thread);
+            shard.commands.drain(WalletEngine::reject, Integer.MAX_VALUE);
+            shard.rejectSnapshotRequest();
+            shard.rejectRollRequest();
+        }
+        balanceChanges.close();
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        var interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // commands offered while the engine was closing and after their shard stopped
+    private static void reject(Envelope envelope) {
+        envelope.future().completeExceptionally(new IllegalStateException("Wallet engine is not running"));
+    }
+
+    private static void throwIfInvalidHoldId(long holdId) {
+        if (holdId < 0)
+            throw new IllegalArgumentException(String.format("Hold id can't be negative but was %s", holdId));
+    }
+
+    private static void throwIfInvalidTtl(Duration ttl) {
+        if (ttl == null || ttl.isNegative() || ttl.isZero())
+            throw new IllegalArgumentException(String.format("Hold ttl must be positive but was %s", ttl));
+    }
+
+    private void throwIfNotRunning() {
+        if (!running)
+            throw new IllegalStateException("Wallet engine is not running");
+    }
+
+    // wallets are routed to journals by shard, replaying with another shard count would let
+    // two shard threads mutate the same wallet
+    private void throwIfJournalsBelongToMoreShards() throws IOException {
+        var directory = config.journalDirectory();
+        if (directory == null)
+            return;
+        Files.createDirectories(directory);
+        try (var files = Files.list(directory)) {
+            var highest = files.map(file -> SHARD_FILE.matcher(file.getFileName().toString()))
+                    .filter(matcher -> matcher.matches())
+                    .mapToInt(matcher -> Integer.parseInt(matcher.group(1) != null ? matcher.group(1) : matcher.group(2)))
+                    .max();
+            if (highest.isPresent() && highest.getAsInt() >= shards.length)
+                throw new IllegalStateException(String.format(
+                        "Journal directory %s was written by at least %s shards but registry has %s",
+                        directory, highest.getAsInt() + 1, shards.length
+                ));
+        }
+    }
+
+    private Path journalFile(int shard) {
+        return config.journalDirectory().resolve("journal-" + shard + ".log");
+    }
+
+    private Path snapshotFile(int shard) {
+        return config.journalDirectory().resolve("snapshot-" + shard + ".bin");
+    }
+
+    // with a hold id a block creates the hold, a spend spends from it and an unblock releases it;
+    // the amount of a release and the delay of a spend or release are taken from the hold
+    private record Envelope(long walletId, WalletCommand command, long requestId, long holdId, long holdDeadlineMillis, CompletableFuture<Money> future) {
+    }
+
+    private record Outcome(Money result, RuntimeException failure) {
+    }
+
+    private record RollRequest(SettlementRoll roll, CompletableFuture<Void> future) {
+    }
+
+    private class Shard implements Runnable {
+        private final int index;
+        private final MpscRingBuffer<Envelope> commands;
+        private final Consumer<Envelope> executor;
+        private final HoldTimerWheel holds;
+        private final HoldTimerWheel.ExpiryHandler expiryHandler;
+        private final OperationResult expiryResult;
+        private final RequestCache<Outcome> requests;
+        // submits between their running check and their offer, see WalletEngine.submit
+        private final AtomicInteger submitting;
+        private final Thread thread;
+        private final CountDownLatch ready;
+        private final Envelope[] pending;
+        private final Money[] results;
+        private final RuntimeException[] failures;
+        private int pendingCount;
+        private final AtomicReference<CompletableFuture<Void>> snapshotRequest;
+        private final AtomicReference<RollRequest> rollRequest;
+        private WalletJournal journal;
+        private long snapshotSequence;
+        private volatile Exception recoveryFailure;
+        // once set memory may be ahead of the journal, the shard refuses further commands
+        // until a restart rebuilds its wallets from what was durably written
+        private IOException journalFailure;
+
+        Shard(int index) {
+            this.index = index;
+            commands = new MpscRingBuffer<>(config.ringCapacity());
+            executor = this::execute;
+            holds = new HoldTimerWheel(config.holdWheelSize(), config.holdTickMillis(), System.currentTimeMillis());
+            expiryHandler = this::expire;
+            expiryResult = new OperationResult();
+            requests = new RequestCache<>(config.requestCacheSize(), config.requestCacheTtlMillis());
+            submitting = new AtomicInteger();
+            thread = new Thread(this, "wallet-engine-shard-" + index);
+            thread.setDaemon(true);
+            ready = new CountDownLatch(1);
+            pending = new Envelope[config.batchSize()];
+            results = new Money[config.batchSize()];
+            failures = new RuntimeException[config.batchSize()];
+            snapshotRequest = new AtomicReference<>();
+            rollRequest = new AtomicReference<>();
+        }
+
+        @Override
+        public void run() {
+            try {
+                recover();
+            } catch (IOException | RuntimeException e) {
+                recoveryFailure = e;
+                return;
+            } finally {
+                ready.countDown();
+            }
+
+            try {
+                var idle = 0;
+                while (running || !commands.isEmpty()) {
+                    if (commands.drain(executor, pending.length) > 0) {
+                        commitAndComplete();
+                        idle = 0;
+                    } else if (++idle < IDLE_SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                    if (holds.size() > 0 && journalFailure == null && holds.advance(System.currentTimeMillis(), expiryHandler) > 0)
+                        commitJournal();
+                    if (requests.size() > 0)
+                        requests.evictExpired(System.currentTimeMillis());
+                    if (rollRequest.get() != null)
+                        roll();
+                    if (snapshotDue())
+                        takeSnapshot();
+                }
+            } finally {
+                closeJournal();
+            }
+        }
+
+        private void recover() throws IOException {
+            if (config.journalDirectory() == null)
+                return;
+            snapshotSequence = WalletSnapshot.load(snapshotFile(index), registry, holds);
+            journal = WalletJournal.open(journalFile(index), config.durability(), config.batchSize());
+            journal.recover(snapshotSequence, (sequence, walletId, type, amount, delay, holdId, holdDeadlineMillis) -> {
+                WalletCommand.of(type, amount, delay).applyTo(registry.getOrCreate(walletId));
+                if (holdId != NO_HOLD)
+                    recoverHold(walletId, type, amount, delay, holdId, holdDeadlineMillis);
+            });
+        }
+
+        // the hold bookkeeping of applyHold and expire, the journaled command already moved the money
+        private void recoverHold(long walletId, WalletCommand.Type type, long amount, SettlementDelay delay, long holdId, long deadlineMillis) {
+            if (type == WalletCommand.Type.BLOCK) {
+                holds.schedule(holdId, walletId, amount, delay, deadlineMillis);
+                return;
+            }
+            var hold = holds.get(holdId);
+            if (hold == null)
+                return;
+            if (type == WalletCommand.Type.SPEND)
+                hold.reduce(amount);
+            if (type != WalletCommand.Type.SPEND || hold.amount() == 0)
+                holds.cancel(holdId);
+        }
+
+        private void execute(Envelope envelope) {
+            var i = pendingCount++;
+            pending[i] = envelope;
+            if (journalFailure != null) {
+                failures[i] = new IllegalStateException("Wallet engine shard stopped after a journal failure", journalFailure);
+                return;
+            }
+            if (envelope.requestId() != NO_REQUEST && replay(envelope, i))
+                return;
+            var command = envelope.command();
+            try {
+                var wallet = walletOf(envelope);
+                if (envelope.holdId() == NO_HOLD)
+                    command.applyTo(wallet);
+                else
+                    command = applyHold(envelope, wallet);
+                if (journal != null)
+                    journal.append(envelope.walletId(), command, envelope.holdId(), envelope.holdDeadlineMillis());
+                results[i] = wallet.buyingPower(command.delay());
+                balanceChanges.changed(envelope.walletId());
+            } catch (IOException e) {
+                journalFailure = e;
+                failures[i] = new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                failures[i] = e;
+            }
+            // an outcome lost to a journal failure is not remembered, after a restart the retry applies again
+            if (envelope.requestId() != NO_REQUEST && journalFailure == null)
+                requests.put(envelope.walletId(), envelope.requestId(), new Outcome(results[i], failures[i]), System.currentTimeMillis());
+        }
+
+        // only money coming in creates a wallet, so a rejected command leaves no empty wallet behind
+        private Wallet walletOf(Envelope envelope) {
+            var type = envelope.command().type();
+            if (type == WalletCommand.Type.CHARGE || type == WalletCommand.Type.DEPOSIT)
+                return registry.getOrCreate(envelope.walletId());
+            var wallet = registry.get(envelope.walletId());
+            if (wallet == null)
+                throw new InsufficientFundsException(String.format("Wallet %s has never been funded", envelope.walletId()));
+            return wallet;
+        }
+
+        // true when the request was executed before, its outcome is then taken over without touching the wallet
+        private boolean replay(Envelope envelope, int i) {
+            var outcome = requests.get(envelope.walletId(), envelope.requestId());
+            if (outcome == null)
+                return false;
+            results[i] = outcome.result();
+            failures[i] = outcome.failure();
+            return true;
+        }
+
+        // returns the command that actually ran, which is what gets journaled
+        private WalletCommand applyHold(Envelope envelope, Wallet wallet) {
+            var command = envelope.command();
+            var holdId = envelope.holdId();
+            if (command.type() == WalletCommand.Type.BLOCK) {
+                if (holds.get(holdId) != null)
+                    throw new IllegalArgumentException(String.format("Hold %s is already pending", holdId));
+                command.applyTo(wallet);
+                holds.schedule(holdId, envelope.walletId(), command.amount(), command.delay(), envelope.holdDeadlineMillis());
+                return command;
+            }
+            var hold = holds.get(holdId);
+            if (hold == null || hold.walletId() != envelope.walletId())
+                throw new IllegalStateException(String.format("Hold %s is not pending on wallet %s", holdId, envelope.walletId()));
+            if (command.type() == WalletCommand.Type.SPEND) {
+                if (command.amount() > hold.amount())
+                    throw new InsufficientFundsException(String.format("Required %s from hold %s but had %s", command.amount(), holdId, hold.amount()));
+                var spend = WalletCommand.spend(command.amount(), hold.delay());
+                spend.applyTo(wallet);
+                hold.reduce(command.amount());
+                if (hold.amount() == 0)
+                    holds.cancel(holdId);
+                return spend;
+            }
+            var unblock = WalletCommand.unblock(hold.amount(), hold.delay());
+            unblock.applyTo(wallet);
+            holds.cancel(holdId);
+            return unblock;
+        }
+
+        // expired holds go through the same debt aware unblock as a release and are journaled like one.
+        // plain spends or unblocks may have used part of the held money, only what is left of it is released
+        private void expire(HoldTimerWheel.Hold hold) {
+            var wallet = registry.getOrCreate(hold.walletId());
+            var amount = Math.min(hold.amount(), wallet.releasableBlocked(hold.delay()));
+            if (amount > 0 && wallet.tryUnblock(amount, hold.delay(), expiryResult).isSuccess())
+                balanceChanges.changed(hold.walletId());
+            else
+                // nothing is left to release, the hold is still journaled as gone
+                amount = 0;
+            var unblock = WalletCommand.unblock(amount, hold.delay());
+            try {
+                if (journal != null)
+                    journal.append(hold.walletId(), unblock, hold.holdId(), 0);
+            } catch (IOException e) {
+                journalFailure = e;
+            }
+        }
+
+        // a batch is only acknowledged once its group commit reached the journal
+        private void commitAndComplete() {
+            commitJournal();
+            for (int i = 0; i < pendingCount; i++) {
+                var future = pending[i].future();
+                if (journalFailure != null && failures[i] == null)
+                    future.completeExceptionally(new UncheckedIOException(journalFailure));
+                else if (failures[i] != null)
+                    future.completeExceptionally(failures[i]);
+                else
+                    future.complete(results[i]);
+                pending[i] = null;
+                results[i] = null;
+                failures[i] = null;
+            }
+            pendingCount = 0;
+        }
+
+        private void commitJournal() {
+            if (journal == null || journalFailure != null)
+                return;
+            try {
+                journal.commit();
+            } catch (IOException e) {
+                journalFailure = e;
+            }
+        }
+
+        CompletableFuture<Void> requestSnapshot() {
+            var request = new CompletableFuture<Void>();
+            var pendingRequest = snapshotRequest.compareAndExchange(null, request);
+            LockSupport.unpark(thread);
+            return pendingRequest == null ? request : pendingRequest;
+        }
+
+        private boolean snapshotDue() {
+            if (journal == null || journalFailure != null)
+                return false;
+            if (snapshotRequest.get() != null)
+                return true;
+            var every = config.snapshotEveryCommands();
+            return every > 0 && journal.lastSequence() - snapshotSequence >= every;
+        }
+
+        // the journal is only cut once the snapshot covering it is durable, a crash in between
+        // replays nothing twice since recovery skips sequences the snapshot already holds
+        private void takeSnapshot() {
+            var request = snapshotRequest.getAndSet(null);
+            var lastSequence = journal.lastSequence();
+            try {
+                WalletSnapshot.write(snapshotFile(index), lastSequence, registry, index, holds);
+                snapshotSequence = lastSequence;
+            } catch (IOException e) {
+                if (request != null)
+                    request.completeExceptionally(e);
+                // retried on the next threshold crossing or request instead of on every idle round
+                snapshotSequence = lastSequence;
+                return;
+            }
+            try {
+                journal.truncate();
+            } catch (IOException e) {
+                journalFailure = e;
+            }
+            if (request != null)
+                request.complete(null);
+        }
+
+        CompletableFuture<Void> requestRoll(SettlementRoll roll) {
+            var request = new RollRequest(roll, new CompletableFuture<>());
+            if (!rollRequest.compareAndSet(null, request))
+                return CompletableFuture.failedFuture(new IllegalStateException("Another settlement roll is pending"));
+            LockSupport.unpark(thread);
+            return request.future();
+        }
+
+        private void roll() {
+            var request = rollRequest.getAndSet(null);
+            if (journalFailure != null) {
+                request.future().completeExceptionally(new IllegalStateException("Wallet engine shard stopped after a journal failure", journalFailure));
+                return;
+            }
+            request.roll().rollShard(index);
+            holds.rollSettlement();
+            if (balanceChanges.subscriberCount() > 0)
+                registry.forEachInShard(index, (walletId, wallet) -> balanceChanges.changed(walletId));
+            if (journal != null) {
+                var lastSequence = journal.lastSequence();
+                try {
+                    WalletSnapshot.write(snapshotFile(index), lastSequence, registry, index, holds);
+                    snapshotSequence = lastSequence;
+                    journal.truncate();
+                } catch (IOException e) {
+                    // the rolled wallets are only in memory, the journal alone would replay onto the day before
+                    journalFailure = e;
+                    request.future().completeExceptionally(e);
+                    return;
+                }
+            }
+            request.future().complete(null);
+        }
+
+        void rejectRollRequest() {
+            var request = rollRequest.getAndSet(null);
+            if (request != null)
+                request.future().completeExceptionally(new IllegalStateException("Wallet engine is not running"));
+        }
+
+        void rejectSnapshotRequest() {
+            var request = snapshotRequest.getAndSet(null);
+            if (request != null)
+                request.completeExceptionally(new IllegalStateException("Wallet engine is not running"));
+        }
+
+        private void closeJournal() {
+            if (journal == null)
+                return;
+            try {
+                journal.close();
+            } catch (IOException e) {
+                journalFailure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ir.milad.customer.domain.wallet;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+@Value
+@Builder
+@Accessors(fluent = true)
+public class WalletEngineConfig {
+    @Builder.Default
+    int ringCapacity = 1 << 14;
+
+    // most commands a shard executes, and journals with a single group commit, per round
+    @Builder.Default
+    int batchSize = 256;
+
+    // no journal is written when missing, wallets then only live in memory
+    Path journalDirectory;
+
+    @Builder.Default
+    JournalDurability durability = JournalDurability.FSYNC;
+
+    // a shard snapshots its wallets and truncates its journal after this many journaled commands,
+    // zero only snapshots on request
+    long snapshotEveryCommands;
+
+    // resolution of hold expiry, a hold is released at most one tick after its ttl
+    @Builder.Default
+    long holdTickMillis = 10;
+
+    // buckets of each shard's hold timer wheel, holds further away than a revolution just wait more revolutions
+    @Builder.Default
+    int holdWheelSize = 4096;
+
+    // outcomes each shard remembers by request id, a retry of a remembered request gets the first outcome back
+    @Builder.Default
+    int requestCacheSize = 1 << 14;
+
+    // how long a request id is remembered, a retry coming later than that is applied again
+    @Builder.Default
+    long requestCacheTtlMillis = 60_000;
+
+    // delivers balance change events to subscribers, never a shard thread
+    @Builder.Default
+    Executor balanceChangeExecutor = ForkJoinPool.commonPool();
+
+    public static WalletEngineConfig defaults() {
+        return builder().build();
+    }
+}
@@ -0,0 +1,151 @@
+package ir.milad.customer.domain.wallet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+// append-only log of applied commands made of fixed size records:
+// sequence(8) walletId(8) amount(8) holdId(8) holdDeadline(8) type(1) delay(1) reserved(2) crc32c(4)
+// type and delay are stored by ordinal so their constants must only ever be appended.
+// a command of a hold carries its id, a negative one otherwise, and the block creating it its deadline
+class WalletJournal implements AutoCloseable {
+    static final int RECORD_SIZE = 48;
+    private static final int CHECKSUMMED_SIZE = RECORD_SIZE - Integer.BYTES;
+    private static final WalletCommand.Type[] TYPES = WalletCommand.Type.values();
+
+    private final FileChannel channel;
+    private final JournalDurability durability;
+    private final ByteBuffer buffer;
+    private final ByteBuffer record;
+    private final CRC32C crc;
+    private long lastSequence;
+    private long size;
+    private boolean recovered;
+
+    private WalletJournal(FileChannel channel, JournalDurability durability, int bufferedRecords) {
+        this.channel = channel;
+        this.durability = durability;
+        this.buffer = ByteBuffer.allocateDirect(RECORD_SIZE * bufferedRecords);
+        this.record = ByteBuffer.allocate(RECORD_SIZE);
+        this.crc = new CRC32C();
+    }
+
+    static WalletJournal open(Path file, JournalDurability durability, int bufferedRecords) throws IOException {
+        Objects.requireNonNull(durability);
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new WalletJournal(channel, durability, bufferedRecords);
+    }
+
+    // replays every intact record after the given sequence and cuts off a torn tail left by a crash,
+    // must run once before anything is appended
+    public void recover(long afterSequence, RecordConsumer consumer) throws IOException {
+        var fileSize = channel.size();
+        var read = ByteBuffer.allocateDirect(buffer.capacity());
+        long position = 0;
+        lastSequence = afterSequence;
+        replay:
+        while (position + RECORD_SIZE <= fileSize) {
+            read.clear();
+            read.limit((int) Math.min(read.capacity(), (fileSize - position) / RECORD_SIZE * RECORD_SIZE));
+            while (read.hasRemaining())
+                if (channel.read(read, position + read.position()) < 0)
+                    break;
+            read.flip();
+            while (read.remaining() >= RECORD_SIZE) {
+                read.get(record.array());
+                if (!isIntact(record.array()))
+                    break replay;
+                var sequence = record.getLong(0);
+                if (sequence > afterSequence) {
+                    consumer.accept(
+                            sequence,
+                            record.getLong(8),
+                            TYPES[record.get(40)],
+                            record.getLong(16),
+                            SettlementDelay.of(record.get(41)),
+                            record.getLong(24),
+                            record.getLong(32)
+                    );
+                    lastSequence = sequence;
+                }
+                position += RECORD_SIZE;
+            }
+        }
+        size = position;
+        channel.truncate(size);
+        recovered = true;
+    }
+
+    public long append(long walletId, WalletCommand command, long holdId, long holdDeadlineMillis) throws IOException {
+        if (!recovered)
+            throw new IllegalStateException("Journal must be recovered before appending");
+        if (buffer.remaining() < RECORD_SIZE)
+            write();
+        var sequence = ++lastSequence;
+        record.clear();
+        record.putLong(sequence)
+                .putLong(walletId)
+                .putLong(command.amount())
+                .putLong(holdId)
+                .putLong(holdDeadlineMillis)
+                .put((byte) command.type().ordinal())
+                .put((byte) command.delay().ordinal())
+                .putShort((short) 0);
+        crc.reset();
+        crc.update(record.array(), 0, CHECKSUMMED_SIZE);
+        record.putInt((int) crc.getValue());
+        buffer.put(record.array());
+        return sequence;
+    }
+
+    // one write, and with FSYNC one force, for every command appended since the last commit
+    public void commit() throws IOException {
+        write();
+        if (durability == JournalDurability.FSYNC)
+            channel.force(false);
+    }
+
+    // drops every record once a snapshot durably covers them, sequences keep counting up
+    public void truncate() throws IOException {
+        commit();
+        channel.truncate(0);
+        channel.force(true);
+        size = 0;
+    }
+
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            size += channel.write(buffer, size);
+        buffer.clear();
+    }
+
+    private boolean isIntact(byte[] bytes) {
+        crc.reset();
+        crc.update(bytes, 0, CHECKSUMMED_SIZE);
+        return (int) crc.getValue() == ByteBuffer.wrap(bytes).getInt(CHECKSUMMED_SIZE)
+                && bytes[40] >= 0 && bytes[40] < TYPES.length
+                && bytes[41] >= 0 && bytes[41] < SettlementDelay.count();
+    }
+
+    interface RecordConsumer {
+        void accept(long sequence, long walletId, WalletCommand.Type type, long amount, SettlementDelay delay, long holdId, long holdDeadlineMillis);
+    }
+}
@@ -0,0 +1,182 @@
+package ir.milad.customer.domain.wallet;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// process wide counters of every Wallet, recorded into striped LongAdders so concurrent wallets never share a lock
+// and rarely a cache line. off by default, COUNTERS costs an increment per operation and LATENCY adds two nanoTime calls.
+// latencies land in power of two buckets, a percentile is reported as the upper bound of its bucket
+public final class WalletMetrics {
+    private static final WalletCommand.Type[] OPERATIONS = WalletCommand.Type.values();
+    private static final int LATENCY_BUCKETS = Long.SIZE;
+    // created last, its constructor needs the constants above
+    private static final WalletMetrics GLOBAL = new WalletMetrics();
+
+    private final LongAdder[] operations;
+    private final LongAdder[][] latencies;
+    private final LongAdder[][] rejections;
+    // debts settled by one walk over the lenders of a delay, a walk that lands on a lender which borrowed itself
+    // continues as a walk of its own
+    private final LongAdder[][] cascades;
+
+    private volatile Level level = Level.OFF;
+
+    private WalletMetrics() {
+        operations = adders(OPERATIONS.length);
+        latencies = new LongAdder[OPERATIONS.length][];
+        rejections = new LongAdder[OPERATIONS.length][];
+        cascades = new LongAdder[OPERATIONS.length][];
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i] = adders(LATENCY_BUCKETS);
+            rejections[i] = adders(SettlementDelay.count());
+            cascades[i] = adders(SettlementDelay.count());
+        }
+    }
+
+    public static WalletMetrics global() {
+        return GLOBAL;
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    public void level(Level level) {
+        this.level = level;
+    }
+
+    // pulls a copy of every counter, concurrent updates may land in the copy or in the next one
+    public Snapshot snapshot() {
+        var snapshot = new Snapshot();
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            snapshot.operations[i] = operations[i].sum();
+            sum(latencies[i], snapshot.latencies[i]);
+            sum(rejections[i], snapshot.rejections[i]);
+            sum(cascades[i], snapshot.cascades[i]);
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            operations[i].reset();
+            reset(latencies[i]);
+            reset(rejections[i]);
+            reset(cascades[i]);
+        }
+    }
+
+    // zero when latencies are not recorded
+    long startedAt() {
+        return level == Level.LATENCY ? System.nanoTime() : 0;
+    }
+
+    void completed(WalletCommand.Type operation, long startedAt) {
+        if (level == Level.OFF)
+            return;
+        operations[operation.ordinal()].increment();
+        if (startedAt != 0)
+            latencies[operation.ordinal()][bucket(System.nanoTime() - startedAt)].increment();
+    }
+
+    // a batch takes its start once and spreads its latency evenly over its commands,
+    // completed holds how many commands of every operation succeeded
+    void completed(long[] completed, int commands, long startedAt) {
+        if (level == Level.OFF)
+            return;
+        var bucket = startedAt == 0 || commands == 0 ? -1 : bucket((System.nanoTime() - startedAt) / commands);
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (completed[i] == 0)
+                continue;
+            operations[i].add(completed[i]);
+            if (bucket >= 0)
+                latencies[i][bucket].add(completed[i]);
+        }
+    }
+
+    void rejected(WalletCommand.Type operation, SettlementDelay delay) {
+        if (level != Level.OFF)
+            rejections[operation.ordinal()][delay.ordinal()].increment();
+    }
+
+    void cascaded(WalletCommand.Type operation, int settledDebts) {
+        if (level != Level.OFF)
+            cascades[operation.ordinal()][settledDebts].increment();
+    }
+
+    private static int bucket(long nanos) {
+        return Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(nanos, 1));
+    }
+
+    private static LongAdder[] adders(int count) {
+        var adders = new LongAdder[count];
+        for (int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static void sum(LongAdder[] adders, long[] target) {
+        for (int i = 0; i < adders.length; i++)
+            target[i] = adders[i].sum();
+    }
+
+    private static void reset(LongAdder[] adders) {
+        for (LongAdder adder : adders)
+            adder.reset();
+    }
+
+    public enum Level {
+        OFF,
+        COUNTERS,
+        LATENCY
+    }
+
+    public static final class Snapshot {
+        private final long[] operations = new long[OPERATIONS.length];
+        private final long[][] latencies = new long[OPERATIONS.length][LATENCY_BUCKETS];
+        private final long[][] rejections = new long[OPERATIONS.length][SettlementDelay.count()];
+        private final long[][] cascades = new long[OPERATIONS.length][SettlementDelay.count()];
+
+        private Snapshot() {
+        }
+
+        public long operations(WalletCommand.Type operation) {
+            return operations[operation.ordinal()];
+        }
+
+        public long rejections(WalletCommand.Type operation, SettlementDelay delay) {
+            return rejections[operation.ordinal()][delay.ordinal()];
+        }
+
+        public long rejections(SettlementDelay delay) {
+            var total = 0L;
+            for (long[] rejected : rejections)
+                total += rejected[delay.ordinal()];
+            return total;
+        }
+
+        // how many walks of this operation settled the given number of debts
+        public long cascades(WalletCommand.Type operation, int settledDebts) {
+            return cascades[operation.ordinal()][settledDebts];
+        }
+
+        // upper bound in nanos of the bucket holding the given percentile, zero when nothing was timed
+        public long latencyPercentileNanos(WalletCommand.Type operation, double percentile) {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException(String.format("Percentile must be between 0 and 100 but was %s", percentile));
+            var buckets = latencies[operation.ordinal()];
+            var total = 0L;
+            for (long count : buckets)
+                total += count;
+            if (total == 0)
+                return 0;
+            var rank = (long) Math.ceil(total * percentile / 100);
+            var seen = 0L;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(rank, 1))
+                    return i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ir.milad.customer.domain.wallet;
+
+public class WalletRegistry {
+    private static final int DEFAULT_EXPECTED_WALLETS = 1 << 16;
+
+    private final Shard[] shards;
+
+    private final int shardMask;
+
+    // every wallet of the registry counts in it and in no other
+    private final FirmExposure exposure = new FirmExposure();
+
+    public WalletRegistry() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_EXPECTED_WALLETS);
+    }
+
+    public WalletRegistry(int shards, long expectedWallets) {
+        if (shards <= 0)
+            throw new IllegalArgumentException("Registry needs at least one shard");
+        if (expectedWallets < 0)
+            throw new IllegalArgumentException("Expected wallets can't be negative");
+        var shardCount = Integer.highestOneBit(shards * 2 - 1);
+        var perShard = Math.toIntExact((expectedWallets + shardCount - 1) / shardCount);
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++)
+            this.shards[i] = new Shard(perShard, exposure);
+        this.shardMask = shardCount - 1;
+    }
+
+    public Wallet get(long customerId) {
+        return shards[shardOf(customerId)].get(customerId);
+    }
+
+    public Wallet getOrCreate(long customerId) {
+        return shards[shardOf(customerId)].getOrCreate(customerId);
+    }
+
+    public FirmExposure exposure() {
+        return exposure;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(long customerId) {
+        return (int) (LongObjectHashMap.mix(customerId) >>> 40) & shardMask;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    public void forEach(WalletConsumer consumer) {
+        for (int i = 0; i < shards.length; i++)
+            forEachInShard(i, consumer);
+    }
+
+    public void forEachInShard(int shard, WalletConsumer consumer) {
+        shards[shard].forEach(consumer);
+    }
+
+    public interface WalletConsumer {
+        void accept(long customerId, Wallet wallet);
+    }
+
+    private static class Shard {
+        private final LongObjectHashMap<Wallet> wallets;
+        private final FirmExposure exposure;
+
+        Shard(int expectedWallets, FirmExposure exposure) {
+            wallets = new LongObjectHashMap<>(expectedWallets);
+            this.exposure = exposure;
+        }
+
+        synchronized Wallet get(long customerId) {
+            return wallets.get(customerId);
+        }
+
+        synchronized Wallet getOrCreate(long customerId) {
+            var wallet = wallets.get(customerId);
+            if (wallet == null) {
+                wallet = new Wallet(exposure);
+                wallets.put(customerId, wallet);
+            }
+            return wallet;
+        }
+
+        synchronized int size() {
+            return wallets.size();
+        }
+
+        synchronized void forEach(WalletConsumer consumer) {
+            wallets.forEach(consumer::accept);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package ir.milad.customer.domain.wallet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// compact image of one registry shard and its pending holds:
+// header(magic, version, delays, lastSequence, walletCount, holdCount) then walletId + Wallet state per wallet,
+// then holdId, walletId, amount, delay and deadline per hold, then crc32c of all of it
+class WalletSnapshot {
+    private static final int MAGIC = 0x57534E50;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES + 3 * Long.BYTES;
+    private static final int HOLD_RECORD_SIZE = 5 * Long.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    // mapped regions are capped below 2GB, files of bigger shards are mapped region by region
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    private WalletSnapshot() {
+    }
+
+    static int recordSize() {
+        return Long.BYTES + Wallet.stateSize();
+    }
+
+    // written next to the target and atomically moved over it once durable,
+    // so a crash while writing leaves the previous snapshot in place
+    static void write(Path file, long lastSequence, WalletRegistry registry, int shard, HoldTimerWheel holds) throws IOException {
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        var crc = new CRC32C();
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            var walletCount = new long[1];
+            registry.forEachInShard(shard, (walletId, wallet) -> walletCount[0]++);
+            buffer.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(SettlementDelay.count())
+                    .putLong(lastSequence)
+                    .putLong(walletCount[0])
+                    .putLong(holds.size());
+            try {
+                registry.forEachInShard(shard, (walletId, wallet) -> {
+                    if (buffer.remaining() < recordSize())
+                        flushUnchecked(channel, buffer, crc);
+                    buffer.putLong(walletId);
+                    wallet.writeState(buffer);
+                });
+                holds.forEach(hold -> {
+                    if (buffer.remaining() < HOLD_RECORD_SIZE)
+                        flushUnchecked(channel, buffer, crc);
+                    buffer.putLong(hold.holdId())
+                            .putLong(hold.walletId())
+                            .putLong(hold.amount())
+                            .putLong(hold.delay().ordinal())
+                            .putLong(hold.deadlineMillis());
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            flush(channel, buffer, crc);
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(file.getParent());
+    }
+
+    // memory-maps the snapshot into the registry, schedules its holds and returns the journal sequence it covers,
+    // zero when there is no snapshot yet. the crc is checked over the mapped records before any of them is applied,
+    // so a corrupted snapshot fails without leaving part of it in the registry or the wheel
+    static long load(Path file, WalletRegistry registry, HoldTimerWheel holds) throws IOException {
+        if (!Files.exists(file))
+            return 0;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size < HEADER_SIZE + Integer.BYTES)
+                throw new IOException(String.format("Snapshot %s is truncated", file));
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException(String.format("%s is not a wallet snapshot of version %s", file, VERSION));
+            if (header.getInt() != SettlementDelay.count())
+                throw new IOException(String.format("Snapshot %s was written with another set of settlement delays", file));
+            var lastSequence = header.getLong();
+            var walletCount = header.getLong();
+            var holdCount = header.getLong();
+            if (size != HEADER_SIZE + walletCount * recordSize() + holdCount * HOLD_RECORD_SIZE + Integer.BYTES)
+                throw new IOException(String.format("Snapshot %s is truncated", file));
+
+            var crc = new CRC32C();
+            crc.update(header.rewind());
+            var recordsPerRegion = MAX_REGION_SIZE / recordSize();
+            var regions = new MappedByteBuffer[(int) ((walletCount + recordsPerRegion - 1) / recordsPerRegion)];
+            long position = HEADER_SIZE;
+            for (int i = 0; i < regions.length; i++) {
+                var records = Math.min(recordsPerRegion, walletCount - i * recordsPerRegion);
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, records * recordSize());
+                crc.update(regions[i].duplicate());
+                position += records * recordSize();
+            }
+            var holdRegion = channel.map(FileChannel.MapMode.READ_ONLY, position, holdCount * HOLD_RECORD_SIZE);
+            crc.update(holdRegion.duplicate());
+            position += holdCount * HOLD_RECORD_SIZE;
+            var trailer = channel.map(FileChannel.MapMode.READ_ONLY, position, Integer.BYTES);
+            if (trailer.getInt() != (int) crc.getValue())
+                throw new IOException(String.format("Snapshot %s is corrupted", file));
+            for (long i = 0; i < holdCount; i++) {
+                var delay = holdRegion.getLong((int) (i * HOLD_RECORD_SIZE) + 3 * Long.BYTES);
+                if (delay < 0 || delay >= SettlementDelay.count())
+                    throw new IOException(String.format("Snapshot %s is corrupted", file));
+            }
+
+            for (MappedByteBuffer region : regions)
+                while (region.hasRemaining())
+                    registry.getOrCreate(region.getLong()).readState(region);
+            for (long i = 0; i < holdCount; i++)
+                holds.schedule(holdRegion.getLong(), holdRegion.getLong(), holdRegion.getLong(), SettlementDelay.of((int) holdRegion.getLong()), holdRegion.getLong());
+            return lastSequence;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32C crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static void flushUnchecked(FileChannel channel, ByteBuffer buffer, CRC32C crc) {
+        try {
+            flush(channel, buffer, crc);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // not every platform can open a directory, the rename is still atomic there
+        }
+    }
+}
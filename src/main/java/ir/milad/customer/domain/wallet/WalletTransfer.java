@@ -0,0 +1,31 @@
+package ir.milad.customer.domain.wallet;
+
+import lombok.Value;
+import lombok.experimental.Accessors;
+
+import java.util.Objects;
+
+// one leg of a batch for ConcurrentWallet.transfer
+@Value
+@Accessors(fluent = true)
+public class WalletTransfer {
+    ConcurrentWallet from;
+    ConcurrentWallet to;
+    long amount;
+    SettlementDelay fromDelay;
+    SettlementDelay toDelay;
+
+    private WalletTransfer(ConcurrentWallet from, ConcurrentWallet to, long amount, SettlementDelay fromDelay, SettlementDelay toDelay) {
+        if (amount < 0)
+            throw new IllegalArgumentException("Money can't have negative value");
+        this.from = Objects.requireNonNull(from);
+        this.to = Objects.requireNonNull(to);
+        this.amount = amount;
+        this.fromDelay = Objects.requireNonNull(fromDelay);
+        this.toDelay = Objects.requireNonNull(toDelay);
+    }
+
+    public static WalletTransfer of(ConcurrentWallet from, ConcurrentWallet to, long amount, SettlementDelay fromDelay, SettlementDelay toDelay) {
+        return new WalletTransfer(from, to, amount, fromDelay, toDelay);
+    }
+}
@@ -0,0 +1,39 @@
+package ir.milad.customer.domain.wallet;
+
+// consistent copy of every tier and debt of a wallet, filled by Wallet.read.
+// owned by the caller and reused across reads so reading allocates nothing
+public final class WalletView {
+    private final long[] state = new long[Wallet.STATE_LENGTH];
+    private long version;
+
+    public long buyingPowerRaw(SettlementDelay delay) {
+        return state[Wallet.BUYING_POWERS + delay.ordinal()];
+    }
+
+    public long cash(SettlementDelay delay) {
+        return InternalWallet.cash(state, delay);
+    }
+
+    public long blocked(SettlementDelay delay) {
+        return InternalWallet.blocked(state, delay);
+    }
+
+    // what the borrower owes the lender, which must be a lower delay
+    public long debt(SettlementDelay lender, SettlementDelay borrower) {
+        return Wallet.DebtSupervisor.get(state, lender, borrower);
+    }
+
+    // grows with every mutation of the wallet, two views of the same version hold the same state
+    public long version() {
+        return version;
+    }
+
+    long[] state() {
+        return state;
+    }
+
+    WalletView version(long version) {
+        this.version = version;
+        return this;
+    }
+}
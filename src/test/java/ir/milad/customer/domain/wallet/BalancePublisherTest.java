@@ -0,0 +1,196 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BalancePublisherTest {
+
+    WalletRegistry registry;
+    BalancePublisher publisher;
+    RecordingSubscriber subscriber;
+
+    @BeforeEach
+    public void beforeEach() {
+        registry = new WalletRegistry(1, 16);
+        // signals are delivered on the calling thread so every test sees them right away
+        publisher = new BalancePublisher(registry, Runnable::run);
+        subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+    }
+
+    private void charge(long walletId, long amount) {
+        registry.getOrCreate(walletId).charge(Money.of(amount));
+        publisher.changed(walletId);
+    }
+
+    @Nested
+    @DisplayName("given a subscriber without demand")
+    class NoDemand {
+
+        @Test
+        @DisplayName("when wallets change then nothing should be delivered")
+        public void backpressure() {
+            charge(1L, 1_000L);
+            charge(2L, 1_000L);
+
+            assertThat(subscriber.subscription).isNotNull();
+            assertThat(subscriber.changes).isEmpty();
+        }
+
+        @Test
+        @DisplayName("when a wallet changes many times then one event with its latest balances should be delivered on request")
+        public void coalesce() {
+            for (int i = 0; i < 100; i++)
+                charge(1L, 10L);
+
+            subscriber.subscription.request(10);
+
+            assertThat(subscriber.changes).hasSize(1);
+            var change = subscriber.changes.get(0);
+            assertThat(change.walletId()).isEqualTo(1L);
+            assertThat(change.buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(1_000L);
+            assertThat(change.version()).isEqualTo(registry.get(1L).read(new WalletView()).version());
+        }
+
+        @Test
+        @DisplayName("when several wallets changed then they should be delivered in the order they first changed, as many as requested")
+        public void order() {
+            charge(2L, 10L);
+            charge(1L, 10L);
+            charge(2L, 10L);
+
+            subscriber.subscription.request(1);
+            assertThat(subscriber.changes).extracting(BalanceChange::walletId).containsExactly(2L);
+
+            subscriber.subscription.request(5);
+            assertThat(subscriber.changes).extracting(BalanceChange::walletId).containsExactly(2L, 1L);
+        }
+
+        @Test
+        @DisplayName("when a non positive demand is requested then it should get onError and be unsubscribed")
+        public void invalidRequest() {
+            subscriber.subscription.request(0);
+
+            assertThat(subscriber.error).isInstanceOf(IllegalArgumentException.class);
+            assertThat(publisher.subscriberCount()).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("given a subscriber with demand")
+    class WithDemand {
+
+        @BeforeEach
+        public void beforeEach() {
+            subscriber.subscription.request(Long.MAX_VALUE);
+        }
+
+        @Test
+        @DisplayName("when a wallet changes then an event should be delivered for every change")
+        public void deliver() {
+            charge(1L, 10L);
+            charge(1L, 20L);
+
+            assertThat(subscriber.changes).extracting(change -> change.buyingPowerRaw(SettlementDelay.T_PLUS_0))
+                    .containsExactly(10L, 30L);
+        }
+
+        @Test
+        @DisplayName("when it cancels then it should get nothing more")
+        public void cancel() {
+            subscriber.subscription.cancel();
+            charge(1L, 10L);
+
+            assertThat(subscriber.changes).isEmpty();
+            assertThat(publisher.subscriberCount()).isZero();
+        }
+
+        @Test
+        @DisplayName("when the publisher is closed then it should get onComplete")
+        public void close() {
+            publisher.close();
+
+            assertThat(subscriber.completed).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("given a closed publisher when a dirty wallet is requested then it should be delivered before onComplete")
+    public void closeDrains() {
+        charge(1L, 10L);
+        publisher.close();
+        assertThat(subscriber.completed).isFalse();
+
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.changes).hasSize(1);
+        assertThat(subscriber.completed).isTrue();
+    }
+
+    @Test
+    @DisplayName("given an engine when commands are applied then a subscriber should see the latest balances")
+    public void engine() throws Exception {
+        var engine = new WalletEngine(new WalletRegistry(2, 16));
+        engine.start();
+        var last = new CompletableFuture<BalanceChange>();
+        engine.balanceChanges().subscribe(new RecordingSubscriber() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(BalanceChange change) {
+                if (change.blocked(SettlementDelay.T_PLUS_1) == 300L)
+                    last.complete(change);
+            }
+        });
+        try {
+            engine.submit(1L, WalletCommand.deposit(1_000L, SettlementDelay.T_PLUS_1));
+            engine.submit(1L, WalletCommand.block(300L, SettlementDelay.T_PLUS_1));
+
+            var change = last.get(10, TimeUnit.SECONDS);
+            assertThat(change.walletId()).isEqualTo(1L);
+            assertThat(change.buyingPowerRaw(SettlementDelay.T_PLUS_1)).isEqualTo(700L);
+        } finally {
+            engine.close();
+        }
+    }
+
+    static class RecordingSubscriber implements Flow.Subscriber<BalanceChange> {
+        final List<BalanceChange> changes = new ArrayList<>();
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(BalanceChange change) {
+            changes.add(change);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
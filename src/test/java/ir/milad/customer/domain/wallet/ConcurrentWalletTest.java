@@ -0,0 +1,200 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrentWalletTest {
+
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 20_000;
+
+    @Test
+    @DisplayName("given a wallet with 1M on every delay when threads block, spend, unblock and deposit back concurrently then buying power should be restored")
+    public void concurrentCascades() throws Exception {
+        var wallet = new ConcurrentWallet();
+        for (SettlementDelay delay : SettlementDelay.values())
+            wallet.depositRaw(1_000_000L, delay);
+        var initial = wallet.buyingPowerRaw(SettlementDelay.T_PLUS_3);
+
+        var running = new AtomicBoolean(true);
+        var start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            var reader = executor.submit(() -> {
+                start.await();
+                while (running.get())
+                    for (SettlementDelay delay : SettlementDelay.values())
+                        assertThat(wallet.buyingPowerRaw(delay)).isBetween(0L, initial);
+                return null;
+            });
+            var writers = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; t++) {
+                var delay = SettlementDelay.of(t % SettlementDelay.T_PLUS_3.ordinal());
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ROUNDS; i++) {
+                        wallet.blockRaw(500_000L, SettlementDelay.T_PLUS_3);
+                        wallet.unblockRaw(400_000L, SettlementDelay.T_PLUS_3);
+                        wallet.spendRaw(100_000L, SettlementDelay.T_PLUS_3);
+                        wallet.depositRaw(100_000L, delay);
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> writer : writers)
+                writer.get(1, TimeUnit.MINUTES);
+            running.set(false);
+            reader.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(wallet.buyingPowerRaw(SettlementDelay.T_PLUS_3)).isEqualTo(initial);
+    }
+
+    @Test
+    @DisplayName("given writers blocking and unblocking through debts when read concurrently then every view should be consistent")
+    public void consistentReads() throws Exception {
+        var wallet = new ConcurrentWallet();
+        for (SettlementDelay delay : SettlementDelay.values())
+            wallet.depositRaw(1_000_000L, delay);
+        var total = 1_000_000L * SettlementDelay.count();
+
+        var running = new AtomicBoolean(true);
+        var start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            var readers = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS - 1; t++) {
+                readers.add(executor.submit(() -> {
+                    var view = new WalletView();
+                    var lastVersion = -1L;
+                    start.await();
+                    while (running.get()) {
+                        wallet.read(view);
+                        assertThat(view.version()).isEven().isGreaterThanOrEqualTo(lastVersion);
+                        lastVersion = view.version();
+                        var cash = 0L;
+                        var money = 0L;
+                        var lent = 0L;
+                        for (SettlementDelay delay : SettlementDelay.values()) {
+                            cash += view.cash(delay);
+                            money += view.cash(delay) + view.blocked(delay);
+                            assertThat(view.buyingPowerRaw(delay)).isEqualTo(cash);
+                            for (SettlementDelay lender : delay.lessThan())
+                                lent += view.debt(lender, delay);
+                        }
+                        assertThat(money).isEqualTo(total);
+                        assertThat(lent).isLessThanOrEqualTo(total - cash);
+                    }
+                    return null;
+                }));
+            }
+            var writer = executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ROUNDS; i++) {
+                    wallet.blockRaw(3_500_000L, SettlementDelay.T_PLUS_3);
+                    wallet.unblockRaw(3_500_000L, SettlementDelay.T_PLUS_3);
+                }
+                return null;
+            });
+
+            start.countDown();
+            writer.get(1, TimeUnit.MINUTES);
+            running.set(false);
+            for (Future<?> reader : readers)
+                reader.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("given wallets transferring to each other in both directions, alone and in batches, when run concurrently then none should deadlock and no money should be lost")
+    public void transfers() throws Exception {
+        var wallets = new ConcurrentWallet[4];
+        for (int i = 0; i < wallets.length; i++) {
+            wallets[i] = new ConcurrentWallet();
+            wallets[i].chargeRaw(1_000_000L);
+        }
+
+        var start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            var writers = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; t++) {
+                var from = wallets[t % wallets.length];
+                var to = wallets[(t + 1) % wallets.length];
+                var batched = t % 2 == 0;
+                writers.add(executor.submit(() -> {
+                    var result = new OperationResult();
+                    var batch = new WalletTransfer[]{
+                            WalletTransfer.of(from, to, 10L, SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_0),
+                            WalletTransfer.of(to, from, 10L, SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_0)
+                    };
+                    var results = new OperationResult[]{new OperationResult(), new OperationResult()};
+                    start.await();
+                    for (int i = 0; i < ROUNDS; i++) {
+                        from.tryBlock(10L, SettlementDelay.T_PLUS_1, result);
+                        to.tryBlock(10L, SettlementDelay.T_PLUS_1, result);
+                        if (batched) {
+                            ConcurrentWallet.transfer(batch, results);
+                        } else {
+                            from.tryTransfer(to, 10L, SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_0, result);
+                            to.tryTransfer(from, 10L, SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_0, result);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> writer : writers)
+                writer.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var total = 0L;
+        var view = new WalletView();
+        for (ConcurrentWallet wallet : wallets) {
+            wallet.read(view);
+            for (SettlementDelay delay : SettlementDelay.values())
+                total += view.cash(delay) + view.blocked(delay);
+        }
+        assertThat(total).isEqualTo(1_000_000L * wallets.length);
+    }
+
+    @Test
+    @DisplayName("given a batch with a transfer the source can't cover when applied then only that transfer should be rejected")
+    public void rejectedInBatch() {
+        var a = new ConcurrentWallet();
+        var b = new ConcurrentWallet();
+        a.chargeRaw(100L);
+        a.blockRaw(100L, SettlementDelay.T_PLUS_0);
+        var results = new OperationResult[]{new OperationResult(), new OperationResult(), new OperationResult()};
+
+        var succeeded = ConcurrentWallet.transfer(new WalletTransfer[]{
+                WalletTransfer.of(a, b, 60L, SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2),
+                WalletTransfer.of(a, b, 60L, SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2),
+                WalletTransfer.of(a, a, 40L, SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_0)
+        }, results);
+
+        assertThat(succeeded).isEqualTo(2);
+        assertThat(results[1].status()).isEqualTo(OperationResult.Status.INSUFFICIENT_BLOCKED);
+        assertThat(a.buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(40L);
+        assertThat(b.buyingPowerRaw(SettlementDelay.T_PLUS_2)).isEqualTo(60L);
+    }
+}
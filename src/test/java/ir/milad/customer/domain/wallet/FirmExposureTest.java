@@ -0,0 +1,126 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FirmExposureTest {
+
+    private static final SettlementDelay[] DELAYS = SettlementDelay.values();
+
+    FirmExposure exposure = new FirmExposure();
+
+    // cash and blocked of every delay then every debt, in the order of a wallet state
+    private long[] totals() {
+        return totals(exposure);
+    }
+
+    private static long[] totals(FirmExposure exposure) {
+        var totals = new long[Wallet.BUYING_POWERS];
+        for (SettlementDelay delay : DELAYS) {
+            totals[2 * delay.ordinal()] = exposure.cash(delay);
+            totals[2 * delay.ordinal() + 1] = exposure.blocked(delay);
+            for (int lender = 0; lender < delay.ordinal(); lender++)
+                totals[Wallet.DebtSupervisor.index(SettlementDelay.of(lender), delay)] = exposure.debt(SettlementDelay.of(lender), delay);
+        }
+        return totals;
+    }
+
+    private static long[] sum(List<Wallet> wallets) {
+        var sum = new long[Wallet.BUYING_POWERS];
+        var view = new WalletView();
+        for (Wallet wallet : wallets) {
+            wallet.read(view);
+            for (int i = 0; i < sum.length; i++)
+                sum[i] += view.state()[i];
+        }
+        return sum;
+    }
+
+    @Test
+    @DisplayName("given t0, t1, t2 = 1M when block(3M, T_PLUS_2) then the blocked money and both debts should be counted")
+    public void blockWithDebts() {
+        var wallet = new Wallet(exposure);
+        wallet.chargeRaw(1_000_000L);
+        wallet.depositRaw(1_000_000L, SettlementDelay.T_PLUS_1);
+        wallet.depositRaw(1_000_000L, SettlementDelay.T_PLUS_2);
+
+        wallet.blockRaw(3_000_000L, SettlementDelay.T_PLUS_2);
+
+        var totals = totals();
+        for (int i = 0; i <= 2; i++) {
+            assertThat(totals[2 * i]).isZero();
+            assertThat(totals[2 * i + 1]).isEqualTo(1_000_000L);
+        }
+        assertThat(exposure.debt(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2)).isEqualTo(1_000_000L);
+        assertThat(totals).isEqualTo(sum(List.of(wallet)));
+    }
+
+    @Test
+    @DisplayName("given random commands, failures and rolls on many wallets then the exposure should be the sum of the wallets")
+    public void randomCommands() {
+        var random = new Random(42);
+        var wallets = new ArrayList<Wallet>();
+        for (int i = 0; i < 16; i++)
+            wallets.add(new Wallet(exposure));
+        var types = WalletCommand.Type.values();
+
+        for (int i = 0; i < 20_000; i++) {
+            var wallet = wallets.get(random.nextInt(wallets.size()));
+            if (random.nextInt(1_000) == 0) {
+                wallet.rollSettlement();
+                continue;
+            }
+            var command = WalletCommand.of(types[random.nextInt(types.length)], random.nextInt(1_000), DELAYS[random.nextInt(DELAYS.length)]);
+            try {
+                command.applyTo(wallet);
+            } catch (InsufficientFundsException | IllegalStateException ignored) {
+                // rejected or rolled back, either way the wallet didn't change
+            }
+        }
+
+        assertThat(totals()).isEqualTo(sum(wallets));
+    }
+
+    @Test
+    @DisplayName("given two registries and a wallet of neither then each registry should count only its own wallets")
+    public void perRegistry() {
+        var first = new WalletRegistry(2, 16);
+        var second = new WalletRegistry(2, 16);
+        first.getOrCreate(1L).depositRaw(100L, SettlementDelay.T_PLUS_1);
+        second.getOrCreate(1L).depositRaw(30L, SettlementDelay.T_PLUS_1);
+        second.getOrCreate(2L).chargeRaw(5L);
+        new Wallet().chargeRaw(1_000L);
+
+        assertThat(first.exposure().cash(SettlementDelay.T_PLUS_1)).isEqualTo(100L);
+        assertThat(first.exposure().cash(SettlementDelay.T_PLUS_0)).isZero();
+        assertThat(second.exposure().cash(SettlementDelay.T_PLUS_1)).isEqualTo(30L);
+        assertThat(second.exposure().cash(SettlementDelay.T_PLUS_0)).isEqualTo(5L);
+    }
+
+    @Test
+    @DisplayName("given a mapped store when it is closed and opened again then its wallets should leave and join the exposure")
+    public void mappedStore(@TempDir Path directory) throws Exception {
+        var file = directory.resolve("wallets.store");
+        var store = MappedWalletStore.open(file, 16, exposure);
+        store.apply(1L, WalletCommand.deposit(1_000L, SettlementDelay.T_PLUS_1));
+        store.apply(1L, WalletCommand.block(400L, SettlementDelay.T_PLUS_1));
+        assertThat(exposure.blocked(SettlementDelay.T_PLUS_1)).isEqualTo(400L);
+
+        store.close();
+        assertThat(totals()).containsOnly(0L);
+
+        var reopened = MappedWalletStore.open(file, 16, exposure);
+        assertThat(exposure.cash(SettlementDelay.T_PLUS_1)).isEqualTo(600L);
+        assertThat(exposure.blocked(SettlementDelay.T_PLUS_1)).isEqualTo(400L);
+        reopened.close();
+        assertThat(totals()).containsOnly(0L);
+    }
+}
@@ -0,0 +1,73 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HoldTimerWheelTest {
+
+    @Nested
+    @DisplayName("given a wheel of 8 buckets of 10ms started at 0")
+    class SmallWheel {
+        HoldTimerWheel wheel = new HoldTimerWheel(8, 10, 0);
+        List<Long> expired = new ArrayList<>();
+
+        @Test
+        @DisplayName("when a hold is due at 25ms then it should fire on the tick covering 30ms and not before")
+        public void firesOnItsTick() {
+            wheel.schedule(1L, 7L, 100L, SettlementDelay.T_PLUS_1, 25);
+
+            assertThat(wheel.advance(29, hold -> expired.add(hold.holdId()))).isZero();
+            assertThat(wheel.advance(30, hold -> expired.add(hold.holdId()))).isEqualTo(1);
+            assertThat(expired).containsExactly(1L);
+            assertThat(wheel.size()).isZero();
+        }
+
+        @Test
+        @DisplayName("when a hold is further away than a revolution then it should wait for its own revolution")
+        public void laterRevolution() {
+            wheel.schedule(1L, 7L, 100L, SettlementDelay.T_PLUS_1, 200);
+
+            assertThat(wheel.advance(100, hold -> expired.add(hold.holdId()))).isZero();
+            assertThat(wheel.advance(150, hold -> expired.add(hold.holdId()))).isZero();
+            assertThat(wheel.advance(1_000, hold -> expired.add(hold.holdId()))).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("when a hold is cancelled then it should never fire and its id can be scheduled again")
+        public void cancel() {
+            wheel.schedule(1L, 7L, 100L, SettlementDelay.T_PLUS_1, 20);
+            wheel.schedule(2L, 7L, 100L, SettlementDelay.T_PLUS_1, 20);
+
+            assertThat(wheel.cancel(1L).amount()).isEqualTo(100L);
+            assertThat(wheel.cancel(1L)).isNull();
+            assertThat(wheel.schedule(2L, 7L, 1L, SettlementDelay.T_PLUS_1, 20)).isFalse();
+            wheel.advance(20, hold -> expired.add(hold.holdId()));
+
+            assertThat(expired).containsExactly(2L);
+            assertThat(wheel.schedule(1L, 7L, 1L, SettlementDelay.T_PLUS_1, 20)).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("given 100_000 holds over a long time span when half are cancelled then exactly the other half should fire")
+    public void manyHolds() {
+        var wheel = new HoldTimerWheel(1_024, 1, 0);
+        for (long id = 0; id < 100_000; id++)
+            wheel.schedule(id, id, 1L, SettlementDelay.T_PLUS_0, id * 7 % 50_000);
+        for (long id = 0; id < 100_000; id += 2)
+            wheel.cancel(id);
+        var expired = new ArrayList<Long>();
+
+        for (long now = 0; now < 50_000 + 13; now += 13)
+            wheel.advance(now, hold -> expired.add(hold.holdId()));
+
+        assertThat(expired).hasSize(50_000).allMatch(id -> id % 2 == 1);
+        assertThat(wheel.size()).isZero();
+    }
+}
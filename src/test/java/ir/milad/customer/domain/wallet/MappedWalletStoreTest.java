@@ -0,0 +1,174 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class MappedWalletStoreTest {
+    @TempDir
+    Path directory;
+
+    Path file;
+    MappedWalletStore store;
+
+    @BeforeEach
+    void open() throws IOException {
+        file = directory.resolve("wallets.store");
+        store = MappedWalletStore.open(file, 1_000);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        store.close();
+    }
+
+    @Test
+    @DisplayName("given random commands on 100 wallets then the store should end as heap wallets fed the same commands")
+    public void sameAsHeapWallets() {
+        var heap = new WalletRegistry(1, 100);
+        var random = new Random(42);
+        var result = new OperationResult();
+        for (int i = 0; i < 20_000; i++) {
+            var customerId = random.nextInt(100) - 50L;
+            var delay = SettlementDelay.of(random.nextInt(SettlementDelay.count()));
+            var amount = random.nextInt(1_000);
+            var command = switch (random.nextInt(4)) {
+                case 0 -> WalletCommand.deposit(amount, delay);
+                case 1 -> WalletCommand.block(amount, delay);
+                case 2 -> WalletCommand.spend(amount / 4, delay);
+                default -> WalletCommand.unblock(amount / 2, delay);
+            };
+            // like the store, only a deposit creates a heap wallet
+            var wallet = command.type() == WalletCommand.Type.DEPOSIT ? heap.getOrCreate(customerId) : heap.get(customerId);
+            assertThat(outcome(() -> store.tryApply(customerId, command, result)))
+                    .isEqualTo(outcome(() -> command.tryApplyTo(wallet == null ? new Wallet() : wallet, result)));
+        }
+
+        assertThat(store.size()).isEqualTo(heap.size());
+        heap.forEach((customerId, wallet) -> {
+            for (SettlementDelay delay : SettlementDelay.values()) {
+                assertThat(store.buyingPowerRaw(customerId, delay)).isEqualTo(wallet.buyingPowerRaw(delay));
+                assertThat(store.copyOf(customerId).internalWallet(delay).blocked()).isEqualTo(wallet.internalWallet(delay).blocked());
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("given a wallet with debts when reopened then it should have the same state")
+    public void reopen() throws IOException {
+        store.apply(7L, WalletCommand.charge(1_000_000L));
+        store.apply(7L, WalletCommand.block(600_000L, SettlementDelay.T_PLUS_2));
+        store.close();
+
+        store = MappedWalletStore.open(file, 0);
+
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.capacity()).isGreaterThanOrEqualTo(1_000);
+        assertThat(store.buyingPowerRaw(7L, SettlementDelay.T_PLUS_2)).isEqualTo(400_000L);
+        assertThat(store.copyOf(7L).debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2)).isEqualTo(600_000L);
+        store.apply(7L, WalletCommand.spend(600_000L, SettlementDelay.T_PLUS_2));
+        assertThat(store.copyOf(7L).internalWallet(SettlementDelay.T_PLUS_0).blocked()).isZero();
+    }
+
+    @Test
+    @DisplayName("given a failing operation then the slot should be left untouched")
+    public void failedOperation() {
+        store.apply(7L, WalletCommand.deposit(1_000L, SettlementDelay.T_PLUS_1));
+
+        assertThatExceptionOfType(InsufficientFundsException.class)
+                .isThrownBy(() -> store.apply(7L, WalletCommand.block(2_000L, SettlementDelay.T_PLUS_1)));
+        assertThat(store.tryApply(7L, WalletCommand.spend(1L, SettlementDelay.T_PLUS_1), new OperationResult()).isSuccess()).isFalse();
+        assertThat(store.buyingPowerRaw(7L, SettlementDelay.T_PLUS_1)).isEqualTo(1_000L);
+        assertThat(store.contains(8L)).isFalse();
+        assertThat(store.copyOf(8L)).isNull();
+    }
+
+    @Test
+    @DisplayName("given a customer without a wallet then a rejected block, spend or unblock should not take a slot")
+    public void rejectedOnUnknownCustomer() {
+        store.apply(7L, WalletCommand.charge(1_000L));
+        var result = new OperationResult();
+
+        store.tryApply(8L, WalletCommand.block(1L, SettlementDelay.T_PLUS_1), result);
+        assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_BUYING_POWER);
+        store.tryApply(9L, WalletCommand.unblock(1L, SettlementDelay.T_PLUS_0), result);
+        assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_BLOCKED);
+        assertThatExceptionOfType(InsufficientFundsException.class)
+                .isThrownBy(() -> store.apply(10L, WalletCommand.spend(1L, SettlementDelay.T_PLUS_0)));
+
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.contains(8L)).isFalse();
+        assertThat(store.contains(9L)).isFalse();
+        assertThat(store.contains(10L)).isFalse();
+    }
+
+    @Test
+    @DisplayName("given T_PLUS_1 money when rolled then it should be on T_PLUS_0")
+    public void rollSettlement() {
+        for (long customerId = 0; customerId < 100; customerId++)
+            store.apply(customerId, WalletCommand.deposit(customerId, SettlementDelay.T_PLUS_1));
+
+        store.rollSettlement();
+
+        for (long customerId = 0; customerId < 100; customerId++)
+            assertThat(store.buyingPowerRaw(customerId, SettlementDelay.T_PLUS_0)).isEqualTo(customerId);
+    }
+
+    @Nested
+    @DisplayName("given a store sized for 8 wallets")
+    class SmallStore {
+        MappedWalletStore small;
+
+        @BeforeEach
+        void open() throws IOException {
+            small = MappedWalletStore.open(directory.resolve("small.store"), 8);
+        }
+
+        @AfterEach
+        void close() throws IOException {
+            small.close();
+        }
+
+        @Test
+        @DisplayName("then a wallet beyond its capacity should be refused")
+        public void full() {
+            for (long customerId = 0; customerId < small.capacity(); customerId++)
+                small.apply(customerId, WalletCommand.charge(1L));
+
+            assertThatExceptionOfType(IllegalStateException.class)
+                    .isThrownBy(() -> small.apply(-1L, WalletCommand.charge(1L)));
+            small.apply(0L, WalletCommand.charge(1L));
+            assertThat(small.buyingPowerRaw(0L, SettlementDelay.T_PLUS_0)).isEqualTo(2L);
+        }
+    }
+
+    @Test
+    @DisplayName("given a file that is not a store then open should throw")
+    public void notAStore() throws IOException {
+        var other = directory.resolve("other");
+        Files.write(other, new byte[128]);
+
+        assertThatExceptionOfType(IOException.class).isThrownBy(() -> MappedWalletStore.open(other, 8));
+    }
+
+    // a cascade may still throw after passing the checks, and both sides must then throw alike
+    private static Object outcome(Supplier<OperationResult> operation) {
+        try {
+            return operation.get().status();
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+}
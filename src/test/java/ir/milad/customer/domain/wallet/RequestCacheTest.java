@@ -0,0 +1,86 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestCacheTest {
+
+    @Nested
+    @DisplayName("given a cache of 4 requests kept for 100ms")
+    class SmallCache {
+        RequestCache<String> cache = new RequestCache<>(4, 100);
+
+        @Test
+        @DisplayName("when a request is put twice then the first outcome should be kept")
+        public void putTwice() {
+            assertThat(cache.put(7L, 1L, "first", 0)).isTrue();
+            assertThat(cache.put(7L, 1L, "second", 10)).isFalse();
+
+            assertThat(cache.get(7L, 1L)).isEqualTo("first");
+            assertThat(cache.size()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("when a fifth request is put then the oldest should be evicted")
+        public void full() {
+            for (long requestId = 1; requestId <= 5; requestId++)
+                cache.put(7L, requestId, "outcome-" + requestId, requestId);
+
+            assertThat(cache.get(7L, 1L)).isNull();
+            assertThat(cache.get(7L, 2L)).isEqualTo("outcome-2");
+            assertThat(cache.get(7L, 5L)).isEqualTo("outcome-5");
+            assertThat(cache.size()).isEqualTo(4);
+        }
+
+        @Test
+        @DisplayName("when the ttl of the older requests elapses then only they should be evicted")
+        public void expire() {
+            cache.put(7L, 1L, "a", 0);
+            cache.put(7L, 2L, "b", 50);
+            cache.put(7L, 3L, "c", 60);
+
+            assertThat(cache.evictExpired(99)).isZero();
+            assertThat(cache.evictExpired(155)).isEqualTo(2);
+            assertThat(cache.get(7L, 1L)).isNull();
+            assertThat(cache.get(7L, 2L)).isNull();
+            assertThat(cache.get(7L, 3L)).isEqualTo("c");
+            assertThat(cache.put(7L, 1L, "again", 155)).isTrue();
+        }
+
+        @Test
+        @DisplayName("when wallets share a request id then each should keep its own outcome until it is evicted")
+        public void sharedRequestId() {
+            cache.put(7L, 1L, "a", 0);
+            cache.put(8L, 1L, "b", 10);
+            cache.put(9L, 1L, "c", 20);
+
+            assertThat(cache.put(8L, 1L, "again", 30)).isFalse();
+            assertThat(cache.get(7L, 1L)).isEqualTo("a");
+            assertThat(cache.get(8L, 1L)).isEqualTo("b");
+            assertThat(cache.get(9L, 1L)).isEqualTo("c");
+            assertThat(cache.get(10L, 1L)).isNull();
+
+            assertThat(cache.evictExpired(105)).isEqualTo(1);
+            assertThat(cache.get(7L, 1L)).isNull();
+            assertThat(cache.get(8L, 1L)).isEqualTo("b");
+            assertThat(cache.get(9L, 1L)).isEqualTo("c");
+            assertThat(cache.evictExpired(125)).isEqualTo(2);
+            assertThat(cache.size()).isZero();
+        }
+    }
+
+    @Test
+    @DisplayName("given 100_000 requests through a cache of 1_000 then exactly the latest 1_000 should be kept")
+    public void manyRequests() {
+        var cache = new RequestCache<Long>(1_000, Long.MAX_VALUE);
+        for (long requestId = 0; requestId < 100_000; requestId++)
+            cache.put(7L, requestId * 7_919, requestId, requestId);
+
+        assertThat(cache.size()).isEqualTo(1_000);
+        for (long requestId = 0; requestId < 100_000; requestId++)
+            assertThat(cache.get(7L, requestId * 7_919)).isEqualTo(requestId < 99_000 ? null : requestId);
+    }
+}
@@ -0,0 +1,75 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class SettlementRollTest {
+
+    @Test
+    @DisplayName("given 10_000 wallets with T_PLUS_1 money over 8 shards when rolled then every wallet should have it on T_PLUS_0")
+    public void rollEveryShard() {
+        var registry = new WalletRegistry(8, 1_024);
+        for (long customerId = 0; customerId < 10_000; customerId++)
+            registry.getOrCreate(customerId).depositRaw(customerId, SettlementDelay.T_PLUS_1);
+        var roll = new SettlementRoll(registry);
+        var pool = new ForkJoinPool(4);
+
+        SettlementRoll.Progress progress;
+        try {
+            progress = roll.run(pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(progress.isDone()).isTrue();
+        assertThat(progress.rolledWallets()).isEqualTo(10_000);
+        assertThat(progress.failedWallets()).isZero();
+        assertThat(progress.rolledShards()).isEqualTo(8);
+        assertThat(progress.elapsedNanos()).isPositive();
+        registry.forEach((customerId, wallet) -> assertThat(wallet.buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(customerId));
+    }
+
+    @Test
+    @DisplayName("given a finished roll when it is run again then should throw and not roll twice")
+    public void runOnce() {
+        var registry = new WalletRegistry(2, 16);
+        registry.getOrCreate(1L).depositRaw(5L, SettlementDelay.T_PLUS_2);
+        var roll = new SettlementRoll(registry);
+        roll.run();
+
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(roll::run);
+        assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isZero();
+        assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_1)).isEqualTo(5L);
+    }
+
+    @Test
+    @DisplayName("given a wallet whose roll overflows when rolled then the rest of its shard should still roll and the wallet be reported as it was")
+    public void failingWallet() {
+        var registry = new WalletRegistry(1, 16);
+        for (long customerId = 1; customerId <= 3; customerId++)
+            registry.getOrCreate(customerId).depositRaw(10L, SettlementDelay.T_PLUS_1);
+        var failing = registry.getOrCreate(2L);
+        failing.depositRaw(Long.MAX_VALUE - 10L, SettlementDelay.T_PLUS_0);
+        failing.blockRaw(Long.MAX_VALUE - 10L, SettlementDelay.T_PLUS_0);
+        failing.depositRaw(10L, SettlementDelay.T_PLUS_1);
+        failing.blockRaw(20L, SettlementDelay.T_PLUS_1);
+        var before = failing.read(new WalletView()).state().clone();
+        var roll = new SettlementRoll(registry);
+
+        var progress = roll.run();
+
+        assertThat(progress.isDone()).isTrue();
+        assertThat(progress.rolledWallets()).isEqualTo(2);
+        assertThat(progress.failedWallets()).isEqualTo(1);
+        assertThat(roll.failures()).containsOnlyKeys(2L);
+        assertThat(roll.failures().get(2L)).isInstanceOf(ArithmeticException.class);
+        assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(10L);
+        assertThat(registry.get(3L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(10L);
+        assertThat(failing.read(new WalletView()).state()).isEqualTo(before);
+    }
+}
@@ -0,0 +1,485 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class WalletEngineTest {
+
+    WalletRegistry registry;
+    WalletEngine engine;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        registry = new WalletRegistry(4, 1_024);
+        engine = new WalletEngine(registry, 64);
+        engine.start();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        engine.close();
+    }
+
+    @Test
+    @DisplayName("given charge(7M) when block(3M, T_PLUS_2) is submitted then future should complete with buyingPower(T_PLUS_2) = 4M")
+    public void block() throws Exception {
+        engine.submit(1L, WalletCommand.charge(7_000_000L));
+
+        var buyingPower = engine.submit(1L, WalletCommand.block(3_000_000L, SettlementDelay.T_PLUS_2)).get(10, TimeUnit.SECONDS);
+
+        assertThat(buyingPower).isEqualTo(Money.of(4_000_000L));
+        assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(4_000_000L);
+    }
+
+    @Test
+    @DisplayName("given an empty wallet when block is submitted then future should fail with InsufficientFundsException")
+    public void insufficientFunds() {
+        var future = engine.submit(2L, WalletCommand.block(1L, SettlementDelay.T_PLUS_0));
+
+        assertThatExceptionOfType(ExecutionException.class)
+                .isThrownBy(() -> future.get(10, TimeUnit.SECONDS))
+                .withCauseInstanceOf(InsufficientFundsException.class);
+        assertThat(registry.get(2L)).isNull();
+    }
+
+    @Test
+    @DisplayName("given many producers when each submits charge then block per wallet then every wallet should see its commands in order")
+    public void manyProducers() throws Exception {
+        var producers = new ArrayList<Thread>();
+        var futures = new ArrayList<CompletableFuture<Money>>();
+        for (int p = 0; p < 4; p++) {
+            var first = p * 1_000L;
+            var producer = new Thread(() -> {
+                for (long walletId = first; walletId < first + 1_000; walletId++) {
+                    engine.submit(walletId, WalletCommand.charge(10L));
+                    var future = engine.submit(walletId, WalletCommand.block(10L, SettlementDelay.T_PLUS_1));
+                    synchronized (futures) {
+                        futures.add(future);
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers)
+            producer.join();
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+
+        assertThat(registry.size()).isEqualTo(4_000);
+        registry.forEach((walletId, wallet) -> assertThat(wallet.buyingPowerRaw(SettlementDelay.T_PLUS_3)).isZero());
+    }
+
+    @Test
+    @DisplayName("given a closed engine then submit should be rejected")
+    public void closed() {
+        engine.close();
+
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> engine.submit(1L, WalletCommand.charge(1L)));
+    }
+
+    @Test
+    @DisplayName("given a closed engine then start should be rejected")
+    public void restart() {
+        engine.close();
+
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(engine::start)
+                .withMessage("Wallet engine can't be started again once closed");
+    }
+
+    @Test
+    @DisplayName("given an interrupted caller when the engine closes then it should still stop every shard and keep the interrupt")
+    public void interruptedClose() {
+        Thread.currentThread().interrupt();
+
+        engine.close();
+
+        assertThat(Thread.interrupted()).isTrue();
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> engine.submit(1L, WalletCommand.charge(1L)));
+    }
+
+    @Test
+    @DisplayName("given producers submitting while the engine closes then every accepted command should be completed or rejected by close")
+    public void closeWhileSubmitting() throws Exception {
+        var futures = new ArrayList<CompletableFuture<Money>>();
+        var producers = new ArrayList<Thread>();
+        for (int p = 0; p < 4; p++) {
+            var walletId = (long) p;
+            var producer = new Thread(() -> {
+                try {
+                    while (true) {
+                        var future = engine.submit(walletId, WalletCommand.charge(1L));
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    }
+                } catch (IllegalStateException closed) {
+                    // the engine stopped accepting commands
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        Thread.sleep(20);
+        engine.close();
+        for (Thread producer : producers)
+            producer.join();
+
+        synchronized (futures) {
+            assertThat(futures).allMatch(CompletableFuture::isDone);
+        }
+    }
+
+    @Nested
+    @DisplayName("given charge(7M) and hold 1 of 3M on T_PLUS_1")
+    class HoldTests {
+
+        @Test
+        @DisplayName("when its ttl elapses then the shard should unblock it by itself")
+        public void expire() throws Exception {
+            engine.submit(1L, WalletCommand.charge(7_000_000L));
+            var held = engine.hold(1L, 1L, 3_000_000L, SettlementDelay.T_PLUS_1, Duration.ofMillis(50)).get(10, TimeUnit.SECONDS);
+            assertThat(held).isEqualTo(Money.of(4_000_000L));
+
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            var buyingPower = held;
+            while (!buyingPower.equals(Money.of(7_000_000L)) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                buyingPower = engine.submit(1L, WalletCommand.deposit(0, SettlementDelay.T_PLUS_1)).get(10, TimeUnit.SECONDS);
+            }
+
+            assertThat(buyingPower).isEqualTo(Money.of(7_000_000L));
+            assertThat(registry.get(1L).debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isZero();
+        }
+
+        @Test
+        @DisplayName("when a plain spend used 2M of its money before its ttl elapses then the shard should release the 1M left")
+        public void expirePartlyUsed() throws Exception {
+            engine.submit(1L, WalletCommand.charge(7_000_000L));
+            engine.hold(1L, 1L, 3_000_000L, SettlementDelay.T_PLUS_1, Duration.ofMillis(100));
+            var spent = engine.submit(1L, WalletCommand.spend(2_000_000L, SettlementDelay.T_PLUS_1)).get(10, TimeUnit.SECONDS);
+            assertThat(spent).isEqualTo(Money.of(4_000_000L));
+
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            var buyingPower = spent;
+            while (!buyingPower.equals(Money.of(5_000_000L)) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                buyingPower = engine.submit(1L, WalletCommand.deposit(0, SettlementDelay.T_PLUS_1)).get(10, TimeUnit.SECONDS);
+            }
+
+            assertThat(buyingPower).isEqualTo(Money.of(5_000_000L));
+            assertThat(registry.get(1L).debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isZero();
+            assertThat(registry.get(1L).internalWallet(SettlementDelay.T_PLUS_0).blocked()).isZero();
+        }
+
+        @Test
+        @DisplayName("when 1M is spent and the rest released then the hold should be gone and a second release should fail")
+        public void spendThenRelease() throws Exception {
+            engine.submit(1L, WalletCommand.charge(7_000_000L));
+            engine.hold(1L, 1L, 3_000_000L, SettlementDelay.T_PLUS_1, Duration.ofHours(1));
+
+            engine.spendHold(1L, 1L, 1_000_000L);
+            var buyingPower = engine.releaseHold(1L, 1L).get(10, TimeUnit.SECONDS);
+            var secondRelease = engine.releaseHold(1L, 1L);
+
+            assertThat(buyingPower).isEqualTo(Money.of(6_000_000L));
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> secondRelease.get(10, TimeUnit.SECONDS))
+                    .withCauseInstanceOf(IllegalStateException.class);
+        }
+
+        @Test
+        @DisplayName("when more than the hold is spent then it should fail and keep the hold")
+        public void overspend() throws Exception {
+            engine.submit(1L, WalletCommand.charge(7_000_000L));
+            engine.hold(1L, 1L, 3_000_000L, SettlementDelay.T_PLUS_1, Duration.ofHours(1));
+
+            var overspend = engine.spendHold(1L, 1L, 4_000_000L);
+            var buyingPower = engine.releaseHold(1L, 1L).get(10, TimeUnit.SECONDS);
+
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> overspend.get(10, TimeUnit.SECONDS))
+                    .withCauseInstanceOf(InsufficientFundsException.class);
+            assertThat(buyingPower).isEqualTo(Money.of(7_000_000L));
+        }
+
+        @Test
+        @DisplayName("when its ttl is missing, zero or negative then hold should be rejected")
+        public void invalidTtl() {
+            for (var ttl : new Duration[]{null, Duration.ZERO, Duration.ofMillis(-1)})
+                assertThatExceptionOfType(IllegalArgumentException.class)
+                        .isThrownBy(() -> engine.hold(1L, 1L, 1L, SettlementDelay.T_PLUS_1, ttl));
+        }
+    }
+
+    @Nested
+    @DisplayName("given requests with ids")
+    class RequestTests {
+
+        @Test
+        @DisplayName("when a charge is retried then it should be applied once and the retry should get the first buying power")
+        public void retriedCharge() throws Exception {
+            var first = engine.submit(1L, 10L, WalletCommand.charge(1_000L)).get(10, TimeUnit.SECONDS);
+            engine.submit(1L, WalletCommand.charge(500L));
+            var retry = engine.submit(1L, 10L, WalletCommand.charge(1_000L)).get(10, TimeUnit.SECONDS);
+
+            assertThat(first).isEqualTo(Money.of(1_000L));
+            assertThat(retry).isEqualTo(Money.of(1_000L));
+            assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(1_500L);
+        }
+
+        @Test
+        @DisplayName("when a failed spend is retried after funding then the retry should fail the same way")
+        public void retriedFailure() throws Exception {
+            var first = engine.submit(1L, 11L, WalletCommand.spend(1_000L, SettlementDelay.T_PLUS_0));
+            engine.submit(1L, WalletCommand.charge(1_000L));
+            engine.submit(1L, WalletCommand.block(1_000L, SettlementDelay.T_PLUS_0));
+            var retry = engine.submit(1L, 11L, WalletCommand.spend(1_000L, SettlementDelay.T_PLUS_0));
+
+            for (var future : List.of(first, retry))
+                assertThatExceptionOfType(ExecutionException.class)
+                        .isThrownBy(() -> future.get(10, TimeUnit.SECONDS))
+                        .withCauseInstanceOf(InsufficientFundsException.class);
+            assertThat(registry.get(1L).internalWallet(SettlementDelay.T_PLUS_0).blocked()).isEqualTo(1_000L);
+        }
+
+        @Test
+        @DisplayName("when a request id is reused on another wallet of the shard then each wallet should apply it once")
+        public void reusedOnAnotherWallet() throws Exception {
+            var other = 2L;
+            while (registry.shardOf(other) != registry.shardOf(1L))
+                other++;
+            engine.submit(1L, 12L, WalletCommand.charge(1_000L)).get(10, TimeUnit.SECONDS);
+            var reused = engine.submit(other, 12L, WalletCommand.charge(2_000L)).get(10, TimeUnit.SECONDS);
+            var retried = engine.submit(other, 12L, WalletCommand.charge(2_000L)).get(10, TimeUnit.SECONDS);
+
+            assertThat(reused).isEqualTo(Money.of(2_000L));
+            assertThat(retried).isEqualTo(Money.of(2_000L));
+            assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(1_000L);
+            assertThat(registry.get(other).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(2_000L);
+        }
+    }
+
+    @Nested
+    @DisplayName("given a journal directory")
+    class JournalTests {
+        @TempDir
+        Path directory;
+
+        @Test
+        @DisplayName("when the engine restarts then wallets should be rebuilt from the journal")
+        public void recover() throws Exception {
+            var journaled = start(new WalletRegistry(2, 16));
+            journaled.submit(1L, WalletCommand.charge(7_000_000L));
+            journaled.submit(1L, WalletCommand.deposit(1_000_000L, SettlementDelay.T_PLUS_2));
+            journaled.submit(1L, WalletCommand.block(3_000_000L, SettlementDelay.T_PLUS_3));
+            journaled.submit(2L, WalletCommand.block(1L, SettlementDelay.T_PLUS_0));
+            journaled.submit(2L, WalletCommand.charge(5L)).get(10, TimeUnit.SECONDS);
+            journaled.submit(1L, WalletCommand.spend(2_000_000L, SettlementDelay.T_PLUS_3)).get(10, TimeUnit.SECONDS);
+            journaled.close();
+
+            var registry = new WalletRegistry(2, 16);
+            var recovered = start(registry);
+            recovered.close();
+
+            assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(5_000_000L);
+            assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_3)).isEqualTo(5_000_000L);
+            assertThat(registry.get(2L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(5L);
+        }
+
+        @Test
+        @DisplayName("when settlement is rolled and the engine restarts then wallets should come back rolled")
+        public void rollSettlement() throws Exception {
+            var registry = new WalletRegistry(2, 16);
+            var journaled = start(registry);
+            journaled.submit(1L, WalletCommand.deposit(3_000_000L, SettlementDelay.T_PLUS_2));
+            journaled.submit(2L, WalletCommand.deposit(1_000_000L, SettlementDelay.T_PLUS_1)).get(10, TimeUnit.SECONDS);
+            var roll = new SettlementRoll(registry);
+
+            journaled.rollSettlement(roll).get(10, TimeUnit.SECONDS);
+            journaled.submit(1L, WalletCommand.block(1_000_000L, SettlementDelay.T_PLUS_1)).get(10, TimeUnit.SECONDS);
+            journaled.close();
+            var recoveredRegistry = new WalletRegistry(2, 16);
+            start(recoveredRegistry).close();
+
+            assertThat(roll.progress().isDone()).isTrue();
+            assertThat(roll.progress().rolledWallets()).isEqualTo(2);
+            assertThat(recoveredRegistry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_1)).isEqualTo(2_000_000L);
+            assertThat(recoveredRegistry.get(2L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(1_000_000L);
+        }
+
+        @Test
+        @DisplayName("when the journal ends with a torn record then recovery should drop it and keep appending")
+        public void tornTail() throws Exception {
+            var journaled = start(new WalletRegistry(1, 16));
+            journaled.submit(1L, WalletCommand.charge(7L)).get(10, TimeUnit.SECONDS);
+            journaled.close();
+            Files.write(directory.resolve("journal-0.log"), new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+            var afterCrash = start(new WalletRegistry(1, 16));
+            afterCrash.submit(1L, WalletCommand.charge(3L)).get(10, TimeUnit.SECONDS);
+            afterCrash.close();
+            var registry = new WalletRegistry(1, 16);
+            start(registry).close();
+
+            assertThat(Files.size(directory.resolve("journal-0.log"))).isEqualTo(2L * WalletJournal.RECORD_SIZE);
+            assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(10L);
+        }
+
+        @Test
+        @DisplayName("when the registry has fewer shards than the journals then start should fail")
+        public void shardCountChanged() throws Exception {
+            start(new WalletRegistry(4, 16)).close();
+
+            assertThatExceptionOfType(IllegalStateException.class)
+                    .isThrownBy(() -> start(new WalletRegistry(2, 16)));
+        }
+
+        @Test
+        @DisplayName("when a snapshot was taken then restart should load it and only replay the journal tail")
+        public void snapshot() throws Exception {
+            var journaled = start(new WalletRegistry(2, 16));
+            var blocks = new ArrayList<CompletableFuture<Money>>();
+            for (long walletId = 0; walletId < 100; walletId++) {
+                journaled.submit(walletId, WalletCommand.charge(7_000_000L));
+                journaled.submit(walletId, WalletCommand.deposit(1_000_000L, SettlementDelay.T_PLUS_2));
+                blocks.add(journaled.submit(walletId, WalletCommand.block(3_000_000L, SettlementDelay.T_PLUS_3)));
+            }
+            CompletableFuture.allOf(blocks.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+            journaled.snapshot().get(10, TimeUnit.SECONDS);
+            journaled.submit(7L, WalletCommand.spend(2_000_000L, SettlementDelay.T_PLUS_3)).get(10, TimeUnit.SECONDS);
+            journaled.close();
+
+            var registry = new WalletRegistry(2, 16);
+            start(registry).close();
+
+            var journalSize = Files.size(directory.resolve("journal-0.log")) + Files.size(directory.resolve("journal-1.log"));
+            assertThat(journalSize).isEqualTo(WalletJournal.RECORD_SIZE);
+            assertThat(registry.size()).isEqualTo(100);
+            registry.forEach((walletId, wallet) -> {
+                assertThat(wallet.buyingPowerRaw(SettlementDelay.T_PLUS_3)).isEqualTo(5_000_000L);
+                assertThat(wallet.internalWallet(SettlementDelay.T_PLUS_2).blocked()).isEqualTo(walletId == 7L ? 0L : 1_000_000L);
+            });
+        }
+
+        @Test
+        @DisplayName("when the snapshot's last hold is corrupted then start should fail without loading any wallet or hold of it")
+        public void corruptedSnapshot() throws Exception {
+            var journaled = start(new WalletRegistry(1, 16));
+            journaled.submit(1L, WalletCommand.charge(7_000_000L));
+            journaled.hold(1L, 1L, 3_000_000L, SettlementDelay.T_PLUS_1, Duration.ofHours(1)).get(10, TimeUnit.SECONDS);
+            journaled.snapshot().get(10, TimeUnit.SECONDS);
+            journaled.close();
+            var snapshot = directory.resolve("snapshot-0.bin");
+            var bytes = Files.readAllBytes(snapshot);
+            bytes[bytes.length - Integer.BYTES - 1] ^= 1;
+            Files.write(snapshot, bytes);
+
+            var registry = new WalletRegistry(1, 16);
+
+            assertThatExceptionOfType(IOException.class)
+                    .isThrownBy(() -> start(registry))
+                    .withCauseInstanceOf(IOException.class)
+                    .satisfies(e -> assertThat(e.getCause()).hasMessageContaining("corrupted"));
+            assertThat(registry.size()).isZero();
+        }
+
+        @Test
+        @DisplayName("when snapshots are taken every 10 commands then the journal should never hold more than a batch past it")
+        public void periodicSnapshot() throws Exception {
+            var journaled = start(new WalletRegistry(1, 16), 10);
+            for (int i = 0; i < 95; i++)
+                journaled.submit(1L, WalletCommand.charge(1L)).get(10, TimeUnit.SECONDS);
+            journaled.close();
+
+            var registry = new WalletRegistry(1, 16);
+            start(registry).close();
+
+            assertThat(Files.exists(directory.resolve("snapshot-0.bin"))).isTrue();
+            assertThat(Files.size(directory.resolve("journal-0.log"))).isLessThan(10L * WalletJournal.RECORD_SIZE);
+            assertThat(registry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(95L);
+        }
+
+        @Test
+        @DisplayName("when a hold is snapshotted, partly spent and the engine restarts then it should still be releasable")
+        public void holdAcrossRestart() throws Exception {
+            var journaled = start(new WalletRegistry(1, 16));
+            journaled.submit(1L, WalletCommand.charge(7_000_000L));
+            journaled.hold(1L, 1L, 3_000_000L, SettlementDelay.T_PLUS_1, Duration.ofHours(1)).get(10, TimeUnit.SECONDS);
+            journaled.snapshot().get(10, TimeUnit.SECONDS);
+            journaled.spendHold(1L, 1L, 1_000_000L).get(10, TimeUnit.SECONDS);
+            journaled.close();
+
+            var recovered = start(new WalletRegistry(1, 16));
+            var overspend = recovered.spendHold(1L, 1L, 3_000_000L);
+            var released = recovered.releaseHold(1L, 1L).get(10, TimeUnit.SECONDS);
+            recovered.close();
+
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> overspend.get(10, TimeUnit.SECONDS))
+                    .withCauseInstanceOf(InsufficientFundsException.class);
+            assertThat(released).isEqualTo(Money.of(6_000_000L));
+        }
+
+        @Test
+        @DisplayName("when a hold's ttl elapses while the engine is down then it should be released after restart")
+        public void holdExpiredWhileDown() throws Exception {
+            var journaled = start(new WalletRegistry(1, 16));
+            journaled.submit(1L, WalletCommand.charge(7_000_000L));
+            journaled.hold(1L, 1L, 3_000_000L, SettlementDelay.T_PLUS_1, Duration.ofMillis(50)).get(10, TimeUnit.SECONDS);
+            journaled.close();
+            Thread.sleep(100);
+
+            var registry = new WalletRegistry(1, 16);
+            var recovered = start(registry);
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            var buyingPower = Money.ZERO;
+            while (!buyingPower.equals(Money.of(7_000_000L)) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                buyingPower = recovered.submit(1L, WalletCommand.deposit(0, SettlementDelay.T_PLUS_1)).get(10, TimeUnit.SECONDS);
+            }
+            recovered.close();
+
+            assertThat(buyingPower).isEqualTo(Money.of(7_000_000L));
+            var afterExpiry = new WalletRegistry(1, 16);
+            start(afterExpiry).close();
+            assertThat(afterExpiry.get(1L).buyingPowerRaw(SettlementDelay.T_PLUS_1)).isEqualTo(7_000_000L);
+        }
+
+        private WalletEngine start(WalletRegistry registry) throws Exception {
+            return start(registry, 0);
+        }
+
+        private WalletEngine start(WalletRegistry registry, long snapshotEveryCommands) throws Exception {
+            var journaled = new WalletEngine(registry, WalletEngineConfig.builder()
+                    .ringCapacity(64)
+                    .journalDirectory(directory)
+                    .durability(JournalDurability.FSYNC)
+                    .snapshotEveryCommands(snapshotEveryCommands)
+                    .build());
+            journaled.start();
+            return journaled;
+        }
+    }
+}
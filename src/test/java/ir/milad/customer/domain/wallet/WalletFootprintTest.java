@@ -0,0 +1,63 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// retained sizes as JOL measures them on the running VM, the bounds hold with and without compressed oops
+class WalletFootprintTest {
+    // a wallet, its exposure reference and its state array, 18 longs with four delays
+    private static final long MAX_WALLET_BYTES = 200;
+
+    @Nested
+    @DisplayName("given a wallet with debts on every delay")
+    class WalletWithDebts {
+        Wallet wallet = new Wallet();
+
+        {
+            wallet.chargeRaw(1_000_000L);
+            wallet.blockRaw(400_000L, SettlementDelay.T_PLUS_3);
+            wallet.depositRaw(300_000L, SettlementDelay.T_PLUS_2);
+            wallet.blockRaw(500_000L, SettlementDelay.T_PLUS_2);
+        }
+
+        @Test
+        @DisplayName("then it should retain the wallet and one state array only")
+        public void retainedSize() {
+            var layout = GraphLayout.parseInstance(wallet);
+
+            assertThat(layout.totalCount()).isEqualTo(2);
+            assertThat(layout.totalSize()).isLessThanOrEqualTo(MAX_WALLET_BYTES);
+        }
+
+        @Test
+        @DisplayName("then operations should not grow it")
+        public void operationsDoNotGrow() {
+            var before = GraphLayout.parseInstance(wallet).totalSize();
+            wallet.rollSettlement();
+            wallet.unblockRaw(100_000L, SettlementDelay.T_PLUS_1);
+
+            assertThat(GraphLayout.parseInstance(wallet).totalSize()).isEqualTo(before);
+        }
+    }
+
+    @Nested
+    @DisplayName("given a registry of 10000 wallets")
+    class Registry {
+        WalletRegistry registry = new WalletRegistry(4, 10_000);
+
+        @Test
+        @DisplayName("then a wallet should cost its own size plus a few slots of the shard tables")
+        public void perWallet() {
+            for (long customerId = 0; customerId < 10_000; customerId++)
+                registry.getOrCreate(customerId).chargeRaw(customerId);
+
+            var layout = GraphLayout.parseInstance(registry);
+
+            assertThat(layout.totalSize() / registry.size()).isLessThanOrEqualTo(MAX_WALLET_BYTES + 64);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class WalletMetricsTest {
+
+    WalletMetrics metrics = WalletMetrics.global();
+
+    @BeforeEach
+    public void beforeEach() {
+        metrics.reset();
+        metrics.level(WalletMetrics.Level.LATENCY);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        metrics.level(WalletMetrics.Level.OFF);
+        metrics.reset();
+    }
+
+    @Test
+    @DisplayName("given t0, t1, t2 = 1M when block(3M, T_PLUS_2) then unblock(3M, T_PLUS_2) then operations and cascade depth should be counted")
+    public void operationsAndCascades() {
+        var wallet = new Wallet();
+        wallet.chargeRaw(1_000_000L);
+        wallet.depositRaw(1_000_000L, SettlementDelay.T_PLUS_1);
+        wallet.depositRaw(1_000_000L, SettlementDelay.T_PLUS_2);
+
+        wallet.blockRaw(3_000_000L, SettlementDelay.T_PLUS_2);
+        wallet.unblockRaw(3_000_000L, SettlementDelay.T_PLUS_2);
+
+        var snapshot = metrics.snapshot();
+        assertThat(snapshot.operations(WalletCommand.Type.CHARGE)).isEqualTo(1);
+        assertThat(snapshot.operations(WalletCommand.Type.DEPOSIT)).isEqualTo(2);
+        assertThat(snapshot.operations(WalletCommand.Type.BLOCK)).isEqualTo(1);
+        assertThat(snapshot.operations(WalletCommand.Type.UNBLOCK)).isEqualTo(1);
+        assertThat(snapshot.cascades(WalletCommand.Type.UNBLOCK, 2)).isEqualTo(1);
+        assertThat(snapshot.latencyPercentileNanos(WalletCommand.Type.BLOCK, 50)).isPositive();
+        assertThat(snapshot.latencyPercentileNanos(WalletCommand.Type.SPEND, 50)).isZero();
+    }
+
+    @Test
+    @DisplayName("given a batch of a charge, two blocks and a rejected spend then its completed commands should be counted and timed")
+    public void batch() {
+        var wallet = new Wallet();
+        var commands = new WalletCommand[]{
+                WalletCommand.charge(2L),
+                WalletCommand.block(1L, SettlementDelay.T_PLUS_0),
+                WalletCommand.block(1L, SettlementDelay.T_PLUS_1),
+                WalletCommand.spend(3L, SettlementDelay.T_PLUS_1)
+        };
+        var results = new OperationResult[]{new OperationResult(), new OperationResult(), new OperationResult(), new OperationResult()};
+
+        wallet.apply(commands, results);
+
+        var snapshot = metrics.snapshot();
+        assertThat(snapshot.operations(WalletCommand.Type.CHARGE)).isEqualTo(1);
+        assertThat(snapshot.operations(WalletCommand.Type.BLOCK)).isEqualTo(2);
+        assertThat(snapshot.operations(WalletCommand.Type.SPEND)).isZero();
+        assertThat(snapshot.rejections(WalletCommand.Type.SPEND, SettlementDelay.T_PLUS_1)).isEqualTo(1);
+        assertThat(snapshot.latencyPercentileNanos(WalletCommand.Type.BLOCK, 50)).isPositive();
+    }
+
+    @Test
+    @DisplayName("given an empty wallet when block is rejected by both apis then rejections should be counted on its delay")
+    public void rejections() {
+        var wallet = new Wallet();
+
+        wallet.tryBlock(1L, SettlementDelay.T_PLUS_1, new OperationResult());
+        assertThatExceptionOfType(InsufficientFundsException.class)
+                .isThrownBy(() -> wallet.blockRaw(1L, SettlementDelay.T_PLUS_1));
+
+        var snapshot = metrics.snapshot();
+        assertThat(snapshot.rejections(WalletCommand.Type.BLOCK, SettlementDelay.T_PLUS_1)).isEqualTo(2);
+        assertThat(snapshot.rejections(SettlementDelay.T_PLUS_1)).isEqualTo(2);
+        assertThat(snapshot.rejections(SettlementDelay.T_PLUS_0)).isZero();
+        assertThat(snapshot.operations(WalletCommand.Type.BLOCK)).isZero();
+    }
+
+    @Test
+    @DisplayName("given level OFF then nothing should be recorded")
+    public void off() {
+        metrics.level(WalletMetrics.Level.OFF);
+
+        new Wallet().chargeRaw(1L);
+
+        assertThat(metrics.snapshot().operations(WalletCommand.Type.CHARGE)).isZero();
+    }
+}
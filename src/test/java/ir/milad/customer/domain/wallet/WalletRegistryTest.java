@@ -0,0 +1,69 @@
+package ir.milad.customer.domain.wallet;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WalletRegistryTest {
+
+    @Nested
+    @DisplayName("given an empty registry with 4 shards")
+    class EmptyRegistry {
+        WalletRegistry registry = new WalletRegistry(4, 16);
+
+        @Test
+        @DisplayName("then get should not create a wallet")
+        public void get() {
+            assertThat(registry.get(42L)).isNull();
+            assertThat(registry.size()).isZero();
+        }
+
+        @Test
+        @DisplayName("then getOrCreate should create once and return the same wallet afterwards")
+        public void getOrCreate() {
+            var wallet = registry.getOrCreate(42L);
+            wallet.chargeRaw(1_000L);
+
+            assertThat(registry.getOrCreate(42L)).isSameAs(wallet);
+            assertThat(registry.get(42L)).isSameAs(wallet);
+            assertThat(registry.size()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("then shard count should be rounded to a power of two")
+        public void shardCount() {
+            assertThat(registry.shardCount()).isEqualTo(4);
+            assertThat(new WalletRegistry(3, 16).shardCount()).isEqualTo(4);
+            assertThat(new WalletRegistry(1, 16).shardCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("given more wallets than expected then every wallet should be found and iterated exactly once")
+    public void growBeyondExpected() {
+        var registry = new WalletRegistry(2, 8);
+        Map<Long, Wallet> expected = new HashMap<>();
+        var random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            var customerId = i % 3 == 0 ? -i : random.nextLong();
+            expected.put(customerId, registry.getOrCreate(customerId));
+        }
+        expected.put(0L, registry.getOrCreate(0L));
+
+        Map<Long, Wallet> iterated = new HashMap<>();
+        registry.forEach((customerId, wallet) -> {
+            assertThat(iterated.put(customerId, wallet)).isNull();
+            assertThat(registry.shardOf(customerId)).isBetween(0, registry.shardCount() - 1);
+        });
+
+        assertThat(registry.size()).isEqualTo(expected.size());
+        assertThat(iterated).isEqualTo(expected);
+        expected.forEach((customerId, wallet) -> assertThat(registry.get(customerId)).isSameAs(wallet));
+    }
+}
@@ -9,13 +9,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 
-import java.lang.reflect.Field;
+import java.nio.LongBuffer;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatNoException;
 import static org.junit.jupiter.params.ParameterizedTest.ARGUMENTS_WITH_NAMES_PLACEHOLDER;
 
 class WalletTest {
@@ -91,6 +93,35 @@ class WalletTest {
                 );
             }
         }
+
+        @Nested
+        @DisplayName("When wallet is t0 = 1M and t2 = 7M")
+        class WalletDef2 {
+
+            @Test
+            @DisplayName("then block(3M, T_PLUS_2) should only block from t2")
+            public void test1() {
+                var wallet = new Wallet();
+                wallet.charge(_1M);
+                wallet.deposit(_7M, SettlementDelay.T_PLUS_2);
+
+                wallet.block(_3M, SettlementDelay.T_PLUS_2);
+
+                assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_0)).isEqualTo(_1M);
+                assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_2)).isEqualTo(Money.of(5_000_000L));
+            }
+        }
+
+        @Test
+        @DisplayName("with a negative raw amount then should throw IllegalArgumentException")
+        public void negativeRawAmount() {
+            var wallet = new Wallet();
+            wallet.chargeRaw(_7M.value());
+
+            assertThatExceptionOfType(IllegalArgumentException.class)
+                    .isThrownBy(() -> wallet.blockRaw(-1L, SettlementDelay.T_PLUS_0));
+            assertThat(wallet.buyingPowerRaw(SettlementDelay.T_PLUS_0)).isEqualTo(_7M.value());
+        }
     }
 
     @Nested
@@ -185,20 +216,10 @@ class WalletTest {
                 }
 
                 private Tuple2<Map<SettlementDelay, InternalWallet>, Wallet.DebtSupervisor> getWalletPrivateFields() {
-                    Map<SettlementDelay, InternalWallet> delayWallets;
-                    Wallet.DebtSupervisor debtSupervisor;
-                    try {
-                        Field delayWalletsField = wallet.getClass().getDeclaredField("delayWallets");
-                        Field debtSupervisorField = wallet.getClass().getDeclaredField("debtSupervisor");
-                        delayWalletsField.setAccessible(true);
-                        debtSupervisorField.setAccessible(true);
-                        delayWallets = (Map<SettlementDelay, InternalWallet>) delayWalletsField.get(wallet);
-                        debtSupervisor = (Wallet.DebtSupervisor) debtSupervisorField.get(wallet);
-
-                    } catch (NoSuchFieldException | IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                    return Tuple.of(delayWallets, debtSupervisor);
+                    Map<SettlementDelay, InternalWallet> delayWallets = new EnumMap<>(SettlementDelay.class);
+                    for (SettlementDelay delay : SettlementDelay.values())
+                        delayWallets.put(delay, wallet.internalWallet(delay));
+                    return Tuple.of(delayWallets, wallet.debtSupervisor());
                 }
             }
         }
@@ -339,6 +360,41 @@ class WalletTest {
     @DisplayName("given unblock with 1.6M")
     class UnblockTests {
 
+        @Nested
+        @DisplayName("when wallet is t0, t1, t2, t3 = 1M and block(4M, T_PLUS_3)")
+        class CascadeDef {
+            Wallet wallet = new Wallet();
+            {
+                Arrays.stream(SettlementDelay.values()).forEach(delay -> wallet.deposit(_1M, delay));
+                wallet.block(_4M, SettlementDelay.T_PLUS_3);
+            }
+
+            @Test
+            @DisplayName("then unblock(4M, T_PLUS_3) should settle every debt so the block can be repeated")
+            public void test() {
+                wallet.unblock(_4M, SettlementDelay.T_PLUS_3);
+                wallet.block(_4M, SettlementDelay.T_PLUS_3);
+                wallet.unblock(_4M, SettlementDelay.T_PLUS_3);
+
+                Arrays.stream(SettlementDelay.values()).forEach(delay ->
+                        assertThat(wallet.buyingPower(delay)).isEqualTo(Money.of(1_000_000L * (delay.ordinal() + 1)))
+                );
+            }
+
+            @Test
+            @DisplayName("then unblock(4M, T_PLUS_3) should clear the debts it settled so they can't be released twice")
+            public void clearsSettledDebts() {
+                wallet.unblock(_4M, SettlementDelay.T_PLUS_3);
+
+                assertThat(wallet.debtSupervisor().count()).isZero();
+                assertThatExceptionOfType(InsufficientFundsException.class)
+                        .isThrownBy(() -> wallet.unblock(_1M, SettlementDelay.T_PLUS_3));
+                Arrays.stream(SettlementDelay.values()).forEach(delay ->
+                        assertThat(wallet.internalWallet(delay).blocked()).isZero()
+                );
+            }
+        }
+
         @Nested
         @DisplayName("when wallet is t0 = 500_000, t1 = 100_000, t2 = 1_000_000")
         class WalletDef {
@@ -412,22 +468,556 @@ class WalletTest {
             }
         }
     }
+    @Nested
+    @DisplayName("given the exception free try api")
+    class TryApiTests {
+
+        @Test
+        @DisplayName("when wallet has 1M then tryBlock(3M, T_PLUS_2) should report required 3M and available 1M and keep the wallet")
+        public void rejectedBlock() {
+            var wallet = new Wallet();
+            wallet.charge(_1M);
+            var result = new OperationResult();
+
+            wallet.tryBlock(_3M.value(), SettlementDelay.T_PLUS_2, result);
+
+            assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_BUYING_POWER);
+            assertThat(result.required()).isEqualTo(_3M.value());
+            assertThat(result.available()).isEqualTo(_1M.value());
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_2)).isEqualTo(_1M);
+        }
+
+        @Test
+        @DisplayName("when a rejected result is reused then a successful tryBlock should reset it")
+        public void reusedResult() {
+            var wallet = new Wallet();
+            wallet.charge(_7M);
+            var result = new OperationResult();
+            wallet.tryBlock(_9M.value(), SettlementDelay.T_PLUS_1, result);
+
+            wallet.tryBlock(_3M.value(), SettlementDelay.T_PLUS_1, result);
+
+            assertThat(result.isSuccess()).isTrue();
+            assertThat(result.required()).isZero();
+            assertThat(result.available()).isZero();
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_1)).isEqualTo(_4M);
+        }
+
+        @Test
+        @DisplayName("when t0 = 1M, t2 = 1M and block(2M, T_PLUS_2) then trySpend and tryUnblock of 3M should report available 2M")
+        public void rejectedSpendAndUnblock() {
+            var wallet = new Wallet();
+            wallet.charge(_1M);
+            wallet.deposit(_1M, SettlementDelay.T_PLUS_2);
+            wallet.block(_2M, SettlementDelay.T_PLUS_2);
+            var result = new OperationResult();
+
+            wallet.trySpend(_3M.value(), SettlementDelay.T_PLUS_2, result);
+            assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_BLOCKED);
+            assertThat(result.available()).isEqualTo(_2M.value());
+
+            wallet.tryUnblock(_3M.value(), SettlementDelay.T_PLUS_2, result);
+            assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_BLOCKED);
+            assertThat(result.available()).isEqualTo(_2M.value());
+
+            assertThat(wallet.tryUnblock(_2M.value(), SettlementDelay.T_PLUS_2, result).isSuccess()).isTrue();
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_0)).isEqualTo(_1M);
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_2)).isEqualTo(_2M);
+        }
+
+        @Test
+        @DisplayName("when unblock is more than what is blocked then the throwing api should throw before settling any debt")
+        public void throwingUnblock() {
+            var wallet = new Wallet();
+            wallet.charge(_1M);
+            wallet.block(_1M, SettlementDelay.T_PLUS_1);
+
+            assertThatExceptionOfType(InsufficientFundsException.class)
+                    .isThrownBy(() -> wallet.unblock(_2M, SettlementDelay.T_PLUS_1));
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isEqualTo(_1M.value());
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_1)).isEqualTo(Money.ZERO);
+        }
+    }
+
+    @Nested
+    @DisplayName("given settlement roll")
+    class SettlementRollTests {
+
+        @Test
+        @DisplayName("when t0 = 1M, t1 = 2M, t2 = 3M and block(4M, T_PLUS_2) then every tier should move down with its debt")
+        public void rollDown() {
+            var wallet = new Wallet();
+            wallet.charge(_1M);
+            wallet.deposit(_2M, SettlementDelay.T_PLUS_1);
+            wallet.deposit(_3M, SettlementDelay.T_PLUS_2);
+            wallet.block(_4M, SettlementDelay.T_PLUS_2);
+
+            wallet.rollSettlement();
+
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_0)).isEqualTo(_2M);
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_3)).isEqualTo(_2M);
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isEqualTo(_1M.value());
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_2)).isZero();
+
+            wallet.unblock(_4M, SettlementDelay.T_PLUS_1);
+
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_0)).isEqualTo(_3M);
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_1)).isEqualTo(Money.of(6_000_000L));
+        }
+
+        @Test
+        @DisplayName("when T_PLUS_1 borrowed from T_PLUS_0 then the debt should be gone and the money blocked on T_PLUS_0")
+        public void debtToT0Disappears() {
+            var wallet = new Wallet();
+            wallet.charge(_1M);
+            wallet.block(_1M, SettlementDelay.T_PLUS_1);
+
+            wallet.rollSettlement();
+
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isZero();
+            wallet.unblock(_1M, SettlementDelay.T_PLUS_0);
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_0)).isEqualTo(_1M);
+        }
+
+        @Test
+        @DisplayName("then every delay should roll onto the delay settling a day sooner and T_PLUS_0 onto itself")
+        public void rolledByDays() {
+            for (SettlementDelay delay : SettlementDelay.values())
+                assertThat(delay.rolled().days()).isEqualTo(Math.max(delay.days() - 1, 0));
+        }
+
+        @Test
+        @DisplayName("when T_PLUS_3 borrowed from T_PLUS_0 then the debt should follow the borrower a day sooner only")
+        public void debtFollowsBorrower() {
+            var wallet = new Wallet();
+            wallet.charge(_1M);
+            wallet.block(_1M, SettlementDelay.T_PLUS_3);
+
+            wallet.rollSettlement();
+
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_3)).isZero();
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2)).isEqualTo(_1M.value());
+        }
+    }
+
+    @Nested
+    @DisplayName("given a batch of commands")
+    class BatchTests {
+
+        @Test
+        @DisplayName("when one command is rejected then the rest should still apply and each gets its own outcome")
+        public void perCommandOutcomes() {
+            var wallet = new Wallet();
+            var commands = new WalletCommand[]{
+                    WalletCommand.charge(_3M.value()),
+                    WalletCommand.block(_2M.value(), SettlementDelay.T_PLUS_1),
+                    WalletCommand.block(_2M.value(), SettlementDelay.T_PLUS_1),
+                    WalletCommand.spend(_1M.value(), SettlementDelay.T_PLUS_1),
+                    WalletCommand.unblock(_2M.value(), SettlementDelay.T_PLUS_1),
+                    WalletCommand.unblock(_1M.value(), SettlementDelay.T_PLUS_1)
+            };
+            var results = new OperationResult[commands.length];
+            Arrays.setAll(results, i -> new OperationResult());
+
+            var succeeded = wallet.apply(commands, results);
+
+            assertThat(succeeded).isEqualTo(4);
+            assertThat(results).extracting(OperationResult::status).containsExactly(
+                    OperationResult.Status.OK,
+                    OperationResult.Status.OK,
+                    OperationResult.Status.INSUFFICIENT_BUYING_POWER,
+                    OperationResult.Status.OK,
+                    OperationResult.Status.INSUFFICIENT_BLOCKED,
+                    OperationResult.Status.OK
+            );
+            assertThat(results[2].available()).isEqualTo(_1M.value());
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_1)).isEqualTo(_2M);
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isZero();
+        }
+
+        @Test
+        @DisplayName("when a charge would overflow then it should be reported and the commands after it still apply in one write")
+        public void overflow() {
+            var wallet = new Wallet();
+            var commands = new WalletCommand[]{
+                    WalletCommand.charge(Long.MAX_VALUE - 1),
+                    WalletCommand.deposit(2L, SettlementDelay.T_PLUS_1),
+                    WalletCommand.block(1L, SettlementDelay.T_PLUS_1)
+            };
+            var results = new OperationResult[commands.length];
+            Arrays.setAll(results, i -> new OperationResult());
+            var version = wallet.read(new WalletView()).version();
+
+            var succeeded = wallet.apply(commands, results);
+
+            assertThat(succeeded).isEqualTo(2);
+            assertThat(results).extracting(OperationResult::status).containsExactly(
+                    OperationResult.Status.OK,
+                    OperationResult.Status.OVERFLOW,
+                    OperationResult.Status.OK
+            );
+            assertThat(results[1].available()).isEqualTo(1L);
+            assertThat(wallet.buyingPowerRaw(SettlementDelay.T_PLUS_1)).isEqualTo(Long.MAX_VALUE - 2);
+            assertThat(wallet.read(new WalletView()).version()).isEqualTo(version + 2);
+        }
+
+        @Test
+        @DisplayName("when there are fewer results than commands then should throw IllegalArgumentException")
+        public void tooFewResults() {
+            assertThatExceptionOfType(IllegalArgumentException.class)
+                    .isThrownBy(() -> new Wallet().apply(new WalletCommand[]{WalletCommand.charge(1)}, new OperationResult[0]));
+        }
+    }
+
+    @Nested
+    @DisplayName("given T_PLUS_0 spent the 1M it lent to T_PLUS_1")
+    class AtomicityTests {
+        private Wallet wallet;
+
+        @BeforeEach
+        public void setUp() {
+            wallet = new Wallet();
+            wallet.charge(_1M);
+            wallet.block(_1M, SettlementDelay.T_PLUS_1);
+            wallet.spend(_1M, SettlementDelay.T_PLUS_0);
+        }
+
+        @Test
+        @DisplayName("when unblock(1M, T_PLUS_1) fails halfway then the settled debt should be rolled back")
+        public void unblockRollsBack() {
+            assertThatExceptionOfType(InsufficientFundsException.class)
+                    .isThrownBy(() -> wallet.unblock(_1M, SettlementDelay.T_PLUS_1));
+
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isEqualTo(_1M.value());
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_1)).isEqualTo(Money.ZERO);
+        }
+
+        @Test
+        @DisplayName("when spend(1M, T_PLUS_1) fails halfway then the cleared debt should be rolled back")
+        public void spendRollsBack() {
+            assertThatExceptionOfType(InsufficientFundsException.class)
+                    .isThrownBy(() -> wallet.spend(_1M, SettlementDelay.T_PLUS_1));
+
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isEqualTo(_1M.value());
+        }
+
+        @Test
+        @DisplayName("when trySpend and tryUnblock(1M, T_PLUS_1) find the lender short then they should report it without throwing")
+        public void tryApiReportsLenderShort() {
+            var result = new OperationResult();
+
+            assertThatNoException().isThrownBy(() -> wallet.trySpend(_1M.value(), SettlementDelay.T_PLUS_1, result));
+            assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_LENDER_BLOCKED);
+            assertThat(result.required()).isEqualTo(_1M.value());
+
+            assertThatNoException().isThrownBy(() -> wallet.tryUnblock(_1M.value(), SettlementDelay.T_PLUS_1, result));
+            assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_LENDER_BLOCKED);
+
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isEqualTo(_1M.value());
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_1)).isEqualTo(Money.ZERO);
+        }
+
+        @Test
+        @DisplayName("when a later deposit settles the debt then the wallet should still be usable")
+        public void usableAfterRollback() {
+            assertThatExceptionOfType(InsufficientFundsException.class)
+                    .isThrownBy(() -> wallet.unblock(_1M, SettlementDelay.T_PLUS_1));
+
+            wallet.deposit(_2M, SettlementDelay.T_PLUS_1);
+
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isZero();
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_0)).isEqualTo(_1M);
+            assertThat(wallet.buyingPower(SettlementDelay.T_PLUS_1)).isEqualTo(_2M);
+        }
+    }
+
+    @Nested
+    @DisplayName("given settlement delays")
+    class SettlementDelayTests {
+
+        @ParameterizedTest(name = ARGUMENTS_WITH_NAMES_PLACEHOLDER + " lattice should be cached and ordered by days")
+        @EnumSource(SettlementDelay.class)
+        public void lattice(SettlementDelay delay) {
+            assertThat(delay.EqualAndLess()).isSameAs(delay.EqualAndLess());
+            assertThat(delay.EqualAndLess().head()).isEqualTo(delay);
+            assertThat(delay.EqualAndLess().tail().reverse()).isEqualTo(delay.lessThan());
+            assertThat(delay.lessThan()).containsExactlyElementsOf(switch (delay) {
+                case T_PLUS_0 -> List.of();
+                case T_PLUS_1 -> List.of(SettlementDelay.T_PLUS_0);
+                case T_PLUS_2 -> List.of(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1);
+                case T_PLUS_3 -> List.of(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_2);
+            });
+            assertThat(delay.EqualAndLess()).containsExactlyElementsOf(switch (delay) {
+                case T_PLUS_0 -> List.of(SettlementDelay.T_PLUS_0);
+                case T_PLUS_1 -> List.of(SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_0);
+                case T_PLUS_2 -> List.of(SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_0);
+                case T_PLUS_3 -> List.of(SettlementDelay.T_PLUS_3, SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_1,
+                        SettlementDelay.T_PLUS_0);
+            });
+            assertThat(SettlementDelay.ofDays(delay.days())).isEqualTo(delay);
+            assertThat(delay.asLender()).isSameAs(delay.asLender());
+        }
+
+        @Test
+        @DisplayName("when a lattice skips a day, starts after T+0 or is out of order then it should be rejected")
+        public void sparseLattice() {
+            assertThatNoException().isThrownBy(() -> SettlementDelay.checkLattice(0, 1, 2, 3, 4, 5));
+            assertThatExceptionOfType(IllegalArgumentException.class)
+                    .isThrownBy(() -> SettlementDelay.checkLattice(0, 1, 2, 3, 5))
+                    .withMessage("Settlement delay of 5 days has no delay of 4 days to roll onto");
+            assertThatExceptionOfType(IllegalArgumentException.class)
+                    .isThrownBy(() -> SettlementDelay.checkLattice(1, 2));
+            assertThatExceptionOfType(IllegalArgumentException.class)
+                    .isThrownBy(() -> SettlementDelay.checkLattice(0, 1, 1))
+                    .withMessage("Settlement delays must be declared in ascending order of days");
+        }
+    }
+
+    @Nested
+    @DisplayName("given t2 borrowed 100 from t1 and then t1 borrowed 50 from t0")
+    class ChainedDebtTests {
+        Wallet wallet = new Wallet();
+
+        @BeforeEach
+        public void beforeEach() {
+            wallet.chargeRaw(100L);
+            wallet.depositRaw(100L, SettlementDelay.T_PLUS_1);
+            wallet.blockRaw(100L, SettlementDelay.T_PLUS_2);
+            wallet.blockRaw(50L, SettlementDelay.T_PLUS_1);
+        }
+
+        @Test
+        @DisplayName("when spend(100, T_PLUS_2) and unblock(50, T_PLUS_1) then every debt should settle with its own lender and t0 get its 100 back")
+        public void settlesWithOriginalLenders() {
+            wallet.spendRaw(100L, SettlementDelay.T_PLUS_2);
+            wallet.unblockRaw(50L, SettlementDelay.T_PLUS_1);
+
+            assertThat(wallet.internalWallet(SettlementDelay.T_PLUS_0).buyingPower()).isEqualTo(100L);
+            assertThat(wallet.internalWallet(SettlementDelay.T_PLUS_1).buyingPower()).isZero();
+            assertThat(wallet.debtSupervisor().count()).isZero();
+            for (SettlementDelay delay : SettlementDelay.values()) {
+                assertThat(wallet.internalWallet(delay).blocked()).isZero();
+                assertThat(wallet.buyingPowerRaw(delay)).isEqualTo(100L);
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("given t0 = 1M and t2 = 300K")
+    class BlockAllTests {
+        Wallet wallet = new Wallet();
+
+        @BeforeEach
+        public void beforeEach() {
+            wallet.chargeRaw(1_000_000L);
+            wallet.depositRaw(300_000L, SettlementDelay.T_PLUS_2);
+        }
+
+        @Test
+        @DisplayName("when a basket is blocked at once then the wallet should end like its legs blocked one by one from the lowest delay")
+        public void basket() {
+            var legs = new WalletCommand[]{
+                    WalletCommand.block(500_000L, SettlementDelay.T_PLUS_2),
+                    WalletCommand.block(200_000L, SettlementDelay.T_PLUS_0),
+                    WalletCommand.block(300_000L, SettlementDelay.T_PLUS_2),
+                    WalletCommand.block(100_000L, SettlementDelay.T_PLUS_3)
+            };
+            var oneByOne = new Wallet();
+            oneByOne.chargeRaw(1_000_000L);
+            oneByOne.depositRaw(300_000L, SettlementDelay.T_PLUS_2);
+            for (int i : new int[]{1, 0, 2, 3})
+                legs[i].applyTo(oneByOne);
+
+            wallet.blockAll(legs);
+
+            assertThat(wallet.read(new WalletView()).state()).isEqualTo(oneByOne.read(new WalletView()).state());
+            assertThat(wallet.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2)).isEqualTo(500_000L);
+            assertThat(wallet.buyingPowerRaw(SettlementDelay.T_PLUS_3)).isEqualTo(200_000L);
+        }
+
+        @Test
+        @DisplayName("when legs fit one by one but not together then none of them should be blocked")
+        public void allOrNothing() {
+            var legs = new WalletCommand[]{
+                    WalletCommand.block(600_000L, SettlementDelay.T_PLUS_0),
+                    WalletCommand.block(600_000L, SettlementDelay.T_PLUS_1),
+                    WalletCommand.block(200_000L, SettlementDelay.T_PLUS_2)
+            };
+
+            var result = wallet.tryBlockAll(legs, new OperationResult());
+
+            assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_BUYING_POWER);
+            assertThat(result.required()).isEqualTo(1_200_000L);
+            assertThat(result.available()).isEqualTo(1_000_000L);
+            assertThatExceptionOfType(InsufficientFundsException.class).isThrownBy(() -> wallet.blockAll(legs));
+            for (SettlementDelay delay : SettlementDelay.values())
+                assertThat(wallet.internalWallet(delay).blocked()).isZero();
+        }
+
+        @Test
+        @DisplayName("when a leg isn't a block then the basket should be refused")
+        public void notABlock() {
+            var legs = new WalletCommand[]{WalletCommand.block(1L, SettlementDelay.T_PLUS_0), WalletCommand.spend(1L, SettlementDelay.T_PLUS_0)};
+
+            assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> wallet.blockAll(legs));
+            assertThat(wallet.internalWallet(SettlementDelay.T_PLUS_0).blocked()).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("given a source with 700K blocked on T_PLUS_2 through debts and a destination that borrowed 200K on T_PLUS_1")
+    class TransferTests {
+        Wallet from = new Wallet();
+        Wallet to = new Wallet();
+
+        @BeforeEach
+        public void beforeEach() {
+            from.chargeRaw(1_000_000L);
+            from.depositRaw(300_000L, SettlementDelay.T_PLUS_2);
+            from.blockRaw(700_000L, SettlementDelay.T_PLUS_2);
+            to.chargeRaw(200_000L);
+            to.blockRaw(200_000L, SettlementDelay.T_PLUS_1);
+        }
+
+        @Test
+        @DisplayName("when 700K is transferred from T_PLUS_2 to T_PLUS_1 then the source should spend through its debts and the destination settle its debt")
+        public void transfer() {
+            from.transferRaw(to, 700_000L, SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_1);
+
+            for (SettlementDelay delay : SettlementDelay.values())
+                assertThat(from.internalWallet(delay).blocked()).isZero();
+            assertThat(from.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2)).isZero();
+            assertThat(from.buyingPowerRaw(SettlementDelay.T_PLUS_3)).isEqualTo(600_000L);
+            assertThat(to.debtSupervisor().get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isZero();
+            assertThat(to.internalWallet(SettlementDelay.T_PLUS_0).buyingPower()).isEqualTo(200_000L);
+            assertThat(to.buyingPowerRaw(SettlementDelay.T_PLUS_1)).isEqualTo(700_000L);
+        }
+
+        @Test
+        @DisplayName("when more than the source can release is transferred then it should be rejected and neither wallet should change")
+        public void rejected() {
+            var result = from.tryTransfer(to, 700_001L, SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_1, new OperationResult());
+
+            assertThat(result.status()).isEqualTo(OperationResult.Status.INSUFFICIENT_BLOCKED);
+            assertThat(from.internalWallet(SettlementDelay.T_PLUS_2).blocked()).isEqualTo(300_000L);
+            assertThat(to.buyingPowerRaw(SettlementDelay.T_PLUS_1)).isZero();
+            assertThatExceptionOfType(InsufficientFundsException.class)
+                    .isThrownBy(() -> from.transferRaw(to, 700_001L, SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_1));
+        }
+
+        @Test
+        @DisplayName("when the deposit into the destination overflows then the spend should be rolled back and neither wallet should change")
+        public void failedDeposit() {
+            var full = new Wallet();
+            full.chargeRaw(Long.MAX_VALUE - 1L);
+            var view = from.read(new WalletView());
+            var before = Arrays.copyOf(view.state(), view.state().length);
+
+            assertThatExceptionOfType(ArithmeticException.class)
+                    .isThrownBy(() -> from.transferRaw(full, 700_000L, SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_0));
+            assertThatExceptionOfType(ArithmeticException.class)
+                    .isThrownBy(() -> from.tryTransfer(full, 700_000L, SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_0, new OperationResult()));
+
+            assertThat(from.read(view).state()).containsExactly(before);
+            assertThat(full.buyingPowerRaw(SettlementDelay.T_PLUS_3)).isEqualTo(Long.MAX_VALUE - 1L);
+        }
+    }
+
+    @Nested
+    @DisplayName("given charge(1M) and block(700K, T_PLUS_2) through debts")
+    class ReadTests {
+        Wallet wallet = new Wallet();
+        WalletView view = new WalletView();
+
+        @BeforeEach
+        public void beforeEach() {
+            wallet.chargeRaw(1_000_000L);
+            wallet.depositRaw(300_000L, SettlementDelay.T_PLUS_2);
+            wallet.blockRaw(700_000L, SettlementDelay.T_PLUS_2);
+        }
+
+        @Test
+        @DisplayName("then read should copy every tier and debt")
+        public void read() {
+            wallet.read(view);
+
+            for (SettlementDelay delay : SettlementDelay.values()) {
+                assertThat(view.buyingPowerRaw(delay)).isEqualTo(wallet.buyingPowerRaw(delay));
+                assertThat(view.blocked(delay)).isEqualTo(wallet.internalWallet(delay).blocked());
+                assertThat(view.cash(delay)).isEqualTo(wallet.internalWallet(delay).buyingPower());
+            }
+            assertThat(view.debt(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2)).isEqualTo(400_000L);
+        }
+
+        @Test
+        @DisplayName("then every mutation, failed ones included, should move the version on by two")
+        public void version() {
+            var before = wallet.read(view).version();
+            wallet.unblockRaw(100_000L, SettlementDelay.T_PLUS_2);
+            assertThatExceptionOfType(InsufficientFundsException.class)
+                    .isThrownBy(() -> wallet.spendRaw(1_000_000L, SettlementDelay.T_PLUS_2));
+            wallet.rollSettlement();
+
+            assertThat(before).isEven();
+            assertThat(wallet.read(view).version()).isEqualTo(before + 6);
+        }
+
+        @Test
+        @DisplayName("then a load failing halfway should leave the version even so readers don't spin")
+        public void failedLoad() {
+            var before = wallet.read(view).version();
+            var tooShort = LongBuffer.allocate(Wallet.STATE_LENGTH - 1);
+
+            assertThatExceptionOfType(IndexOutOfBoundsException.class)
+                    .isThrownBy(() -> wallet.loadState(tooShort, 0));
+            assertThat(wallet.read(view).version()).isEqualTo(before + 2);
+        }
+    }
+
+    @Nested
+    @DisplayName("given debt supervisor")
+    class DebtSupervisorTests {
+        Wallet.DebtSupervisor debtSupervisor = new Wallet.DebtSupervisor();
+
+        @Test
+        @DisplayName("when T_PLUS_2 owes 1M to T_PLUS_0 then decrease by 2M should throw and keep the debt")
+        public void decreaseMoreThanDebt() {
+            debtSupervisor.increase(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2, _1M.value());
+
+            assertThatExceptionOfType(IllegalStateException.class)
+                    .isThrownBy(() -> debtSupervisor.decrease(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2, _2M.value()));
+            assertThat(debtSupervisor.get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_2)).isEqualTo(_1M.value());
+            assertThat(debtSupervisor.get(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1)).isZero();
+        }
+
+        @Test
+        @DisplayName("when debt is near Long.MAX_VALUE then increase should throw")
+        public void increaseOverflow() {
+            debtSupervisor.increase(SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_3, Long.MAX_VALUE);
+
+            assertThatExceptionOfType(ArithmeticException.class)
+                    .isThrownBy(() -> debtSupervisor.increase(SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_3, 1L));
+        }
+
+        @Test
+        @DisplayName("when lender is not below borrower then access should throw")
+        public void lenderNotBelowBorrower() {
+            assertThatExceptionOfType(IllegalArgumentException.class)
+                    .isThrownBy(() -> debtSupervisor.get(SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_1));
+            assertThatExceptionOfType(IllegalArgumentException.class)
+                    .isThrownBy(() -> debtSupervisor.increase(SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_1, 1L));
+        }
+    }
+
     private List<SettlementDelay> greaterThanAndEqual(SettlementDelay delay) {
-        return switch (delay) {
-            case T_PLUS_0 ->
-                    List.of(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_3);
-            case T_PLUS_1 -> List.of(SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_3);
-            case T_PLUS_2 -> List.of(SettlementDelay.T_PLUS_2, SettlementDelay.T_PLUS_3);
-            case T_PLUS_3 -> List.of(SettlementDelay.T_PLUS_3);
-        };
+        return Arrays.stream(SettlementDelay.values())
+                .filter(settlementDelay -> settlementDelay.ordinal() >= delay.ordinal())
+                .toList();
     }
 
     private List<SettlementDelay> lessThan(SettlementDelay delay) {
-        return switch (delay) {
-            case T_PLUS_0 -> List.of();
-            case T_PLUS_1 -> List.of(SettlementDelay.T_PLUS_0);
-            case T_PLUS_2 -> List.of(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1);
-            case T_PLUS_3 -> List.of(SettlementDelay.T_PLUS_0, SettlementDelay.T_PLUS_1, SettlementDelay.T_PLUS_2);
-        };
+        return Arrays.stream(SettlementDelay.values())
+                .filter(settlementDelay -> settlementDelay.ordinal() < delay.ordinal())
+                .toList();
     }
-}
\ No newline at end of file
+}